@@ -0,0 +1,150 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import static com.example.android.pets.data.PetContract.*;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the migration of a database of the oldest migratable version to the current version
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetMigrationTest {
+
+    // Number of pets in the old database
+    private static final int PETS = 1000;
+
+    // The pets table of version 5, which is the oldest migratable version
+    private static final String SQL_CREATE_VERSION_5 = "CREATE TABLE " + PetEntry.TABLE_NAME
+            + "(" + PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + PetEntry.COLUMN_NAME + " TEXT NOT NULL, "
+            + PetEntry.COLUMN_BREED + " TEXT NOT NULL, "
+            + PetEntry.COLUMN_GENDER + " INTEGER NOT NULL, "
+            + PetEntry.COLUMN_WEIGHT + " INTEGER NOT NULL);";
+
+    private Context mContext;
+    private Context mFreshContext;
+
+    @Before
+    public void setUp() {
+        mContext = TestPetProvider.createContext();
+        mContext.deleteDatabase(TestPetProvider.DATABASE_NAME);
+
+        // A database which is created at the current version, to compare the schema with
+        mFreshContext = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(),
+                "test-fresh-");
+        mFreshContext.deleteDatabase(TestPetProvider.DATABASE_NAME);
+
+        SQLiteDatabase db = mContext.openOrCreateDatabase(TestPetProvider.DATABASE_NAME, 0, null);
+        try {
+            db.execSQL(SQL_CREATE_VERSION_5);
+            db.beginTransaction();
+            SQLiteStatement insert = db.compileStatement("INSERT INTO " + PetEntry.TABLE_NAME
+                    + " (" + PetEntry.COLUMN_NAME + ", " + PetEntry.COLUMN_BREED + ", "
+                    + PetEntry.COLUMN_GENDER + ", " + PetEntry.COLUMN_WEIGHT
+                    + ") VALUES (?, ?, ?, ?)");
+            try {
+                for(int i = 0; i < PETS; i++){
+                    ContentValues pet = TestPetProvider.createPet(i);
+                    insert.bindString(1, pet.getAsString(PetEntry.COLUMN_NAME));
+                    insert.bindString(2, pet.getAsString(PetEntry.COLUMN_BREED));
+                    insert.bindLong(3, pet.getAsInteger(PetEntry.COLUMN_GENDER));
+                    insert.bindLong(4, pet.getAsInteger(PetEntry.COLUMN_WEIGHT));
+                    insert.executeInsert();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                insert.close();
+                db.endTransaction();
+            }
+            db.setVersion(PetDbHelper.MIN_MIGRATABLE_VERSION);
+        } finally {
+            db.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(TestPetProvider.DATABASE_NAME);
+        mFreshContext.deleteDatabase(TestPetProvider.DATABASE_NAME);
+    }
+
+    @Test
+    public void keepsThePets() {
+
+        PetDbHelper helper = new PetDbHelper(mContext);
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            assertEquals(PetDbHelper.DATABASE_VERSION, db.getVersion());
+            assertEquals("ok", DatabaseUtils.stringForQuery(db, "PRAGMA integrity_check", null));
+
+            assertEquals(PETS, DatabaseUtils.queryNumEntries(db, PetEntry.VIEW_NAME));
+            assertEquals(10, DatabaseUtils.queryNumEntries(db, BreedEntry.TABLE_NAME));
+            assertEquals("Breed 7", DatabaseUtils.stringForQuery(db, "SELECT "
+                    + PetEntry.COLUMN_BREED + " FROM " + PetEntry.VIEW_NAME + " WHERE "
+                    + PetEntry.COLUMN_NAME + " = 'Pet 17'", null));
+
+            // The summary table and the search table were filled with the old pets
+            assertEquals(PETS, DatabaseUtils.longForQuery(db, "SELECT "
+                    + StatsEntry.COLUMN_COUNT + " FROM " + StatsEntry.TABLE_NAME + " WHERE "
+                    + StatsEntry.COLUMN_GROUP_BY + " = '" + StatsEntry.GROUP_ALL + "'", null));
+            assertEquals(PETS / 10, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM "
+                    + PetEntry.SEARCH_TABLE_NAME + " WHERE " + PetEntry.SEARCH_TABLE_NAME
+                    + " MATCH 'breed 3'", null));
+
+            // The AUTOINCREMENT sequence continues after the old pets
+            ContentValues pet = new ContentValues();
+            pet.put(PetEntry.COLUMN_NAME, "New");
+            pet.put(PetEntry.COLUMN_BREED_ID, 1);
+            pet.put(PetEntry.COLUMN_GENDER, PetEntry.GENDER_UNKNOWN);
+            pet.put(PetEntry.COLUMN_WEIGHT, 1);
+            assertEquals(PETS + 1, db.insertOrThrow(PetEntry.TABLE_NAME, null, pet));
+        } finally {
+            helper.close();
+        }
+    }
+
+    @Test
+    public void createsTheSchemaOfANewDatabase() {
+
+        PetDbHelper migrated = new PetDbHelper(mContext);
+        PetDbHelper fresh = new PetDbHelper(mFreshContext);
+        try {
+            assertEquals(getSchema(fresh.getReadableDatabase()),
+                    getSchema(migrated.getReadableDatabase()));
+        } finally {
+            migrated.close();
+            fresh.close();
+        }
+    }
+
+    // Returns the type and name of every table, view, index and trigger of a database
+    private static Set<String> getSchema(SQLiteDatabase db) {
+        Set<String> schema = new TreeSet<>();
+        Cursor cursor = db.rawQuery("SELECT type, name FROM sqlite_master", null);
+        try {
+            while(cursor.moveToNext()){
+                schema.add(cursor.getString(0) + " " + cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return schema;
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.example.android.pets.data.PetContract.PetEntry;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests with EXPLAIN QUERY PLAN that the catalog queries on the pets view use the indexes of
+ * the pets table instead of scanning or sorting it
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetQueryPlanTest {
+
+    private Context mContext;
+    private PetProvider mProvider;
+    private PetDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mContext = TestPetProvider.createContext();
+        mProvider = TestPetProvider.create(mContext);
+        TestPetProvider.insertPets(mProvider, 1000);
+        mDbHelper = new PetDbHelper(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        TestPetProvider.destroy(mContext, mProvider);
+    }
+
+    @Test
+    public void filtersByNameWithTheNameIndex() {
+        assertUsesIndex(explain(PetEntry.COLUMN_NAME + " = ?", null, null), "pets_name_index");
+    }
+
+    @Test
+    public void filtersByGenderWithTheGenderIndex() {
+        assertUsesIndex(explain(PetEntry.COLUMN_GENDER + " = ?", null, null),
+                "pets_gender_index");
+    }
+
+    @Test
+    public void filtersByBreedSortedByNameWithTheBreedIndex() {
+        assertUsesIndex(explain(PetEntry.COLUMN_BREED + " = ?", PetEntry.COLUMN_NAME, null),
+                "pets_breed_name_index");
+    }
+
+    @Test
+    public void sortsByNameWithTheNameIndex() {
+        assertUsesIndex(explain(null, PetEntry.COLUMN_NAME, null), "pets_name_index");
+    }
+
+    @Test
+    public void pagesByIdWithThePrimaryKey() {
+        assertUsesIndex(explain(PetEntry._ID + " > ?", PetEntry._ID, "50"), "PRIMARY KEY");
+    }
+
+    @Test
+    public void readsTheWeightsOfTheStatisticsFromTheIndexes() {
+
+        // The statistics triggers read the minimum and maximum weight of a group like this
+        final String min = "SELECT MIN(" + PetEntry.COLUMN_WEIGHT + ") FROM "
+                + PetEntry.TABLE_NAME + " WHERE ";
+        final String live = PetDbHelper.LIVE_SELECTION;
+
+        assertUsesIndex(explain(min + live, null), "pets_weight_index");
+        assertUsesIndex(explain(min + PetEntry.COLUMN_GENDER + " = ? AND " + live,
+                new String[]{ "1" }), "pets_gender_weight_index");
+        assertUsesIndex(explain(min + PetEntry.COLUMN_BREED_ID + " = ? AND " + live,
+                new String[]{ "1" }), "pets_breed_weight_index");
+    }
+
+    /**
+     * This method returns the plan of a catalog query, which is built like the provider builds
+     * it
+     * @param selection is the filter of the query, or null
+     * @param sortOrder is the order of the query, or null
+     * @param limit is the maximum number of rows, or null
+     * @return the steps of the plan, one on every line
+     */
+    private String explain(String selection, String sortOrder, String limit) {
+
+        String sql = SQLiteQueryBuilder.buildQueryString(false, PetEntry.VIEW_NAME,
+                PetEntry.PROJECTION_LIST, selection, null, null, sortOrder, limit);
+        String[] selectionArgs = selection == null ? null : new String[]{ "1" };
+        return explain(sql, selectionArgs);
+    }
+
+    /**
+     * This method returns the plan of a query
+     * @param sql is the query
+     * @param selectionArgs are the arguments of the query
+     * @return the query and the steps of the plan, one on every line
+     */
+    private String explain(String sql, String[] selectionArgs) {
+
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        StringBuilder plan = new StringBuilder(sql);
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while(cursor.moveToNext()){
+                plan.append('\n').append(cursor.getString(detail));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan.toString();
+    }
+
+    // Checks that the plan searches the pets table with the index and does not sort the rows
+    private static void assertUsesIndex(String plan, String index) {
+        assertTrue(plan, plan.contains(index));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.os.Bundle;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static com.example.android.pets.data.PetContract.*;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of the snapshot and restore of the pets through the provider's call()
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetSnapshotTest {
+
+    private Context mContext;
+    private PetProvider mProvider;
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mContext = TestPetProvider.createContext();
+        mProvider = TestPetProvider.create(mContext);
+        mFile = new File(mContext.getCacheDir(), "test-pets.snapshot");
+    }
+
+    @After
+    public void tearDown() {
+        TestPetProvider.destroy(mContext, mProvider);
+        mFile.delete();
+    }
+
+    @Test
+    public void restoresTheSnapshotOfTheLivePets() {
+
+        TestPetProvider.insertPets(mProvider, 100);
+
+        // The deleted pets stay in the table as tombstones until they are compacted
+        for(long id = 10; id <= 100; id += 10){
+            mProvider.delete(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id), null, null);
+        }
+        long[] ids = TestPetProvider.queryIds(mProvider);
+        assertEquals(90, ids.length);
+
+        Bundle snapshot = mProvider.call(METHOD_CREATE_SNAPSHOT, mFile.getPath(), null);
+        assertEquals(90, snapshot.getInt(KEY_SNAPSHOT_ROWS));
+
+        // Pets which are added after the snapshot are gone after the restore
+        TestPetProvider.insertPets(mProvider, 5);
+
+        Bundle restore = mProvider.call(METHOD_RESTORE_SNAPSHOT, mFile.getPath(), null);
+        assertEquals(90, restore.getInt(KEY_SNAPSHOT_ROWS));
+        assertArrayEquals(ids, TestPetProvider.queryIds(mProvider));
+    }
+
+    @Test
+    public void restoresAnEmptySnapshot() {
+
+        TestPetProvider.insertPets(mProvider, 3);
+        mProvider.delete(PetEntry.CONTENT_URI, null, null);
+
+        Bundle snapshot = mProvider.call(METHOD_CREATE_SNAPSHOT, mFile.getPath(), null);
+        assertEquals(0, snapshot.getInt(KEY_SNAPSHOT_ROWS));
+
+        TestPetProvider.insertPets(mProvider, 3);
+        mProvider.call(METHOD_RESTORE_SNAPSHOT, mFile.getPath(), null);
+        assertEquals("[]", Arrays.toString(TestPetProvider.queryIds(mProvider)));
+    }
+}
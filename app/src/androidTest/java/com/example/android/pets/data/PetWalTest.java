@@ -0,0 +1,161 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.example.android.pets.data.PetContract.PetEntry;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the readers of the provider run in parallel with a writer, and logs the latency
+ * of the catalog's page query while the pets are written
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetWalTest {
+
+    // Log tag
+    private static final String LOG_TAG = PetWalTest.class.getSimpleName();
+
+    // Number of page queries which are measured while the writer runs
+    private static final int READS = 200;
+
+    // Number of pets in one bulk insert of the writer
+    private static final int WRITE_BATCH = 500;
+
+    private Context mContext;
+    private PetProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = TestPetProvider.createContext();
+        mProvider = TestPetProvider.create(mContext);
+        TestPetProvider.insertPets(mProvider, 1000);
+    }
+
+    @After
+    public void tearDown() {
+        TestPetProvider.destroy(mContext, mProvider);
+    }
+
+    @Test
+    public void usesTheWriteAheadLog() {
+        PetDbHelper helper = new PetDbHelper(mContext);
+        try {
+            assertEquals("wal", DatabaseUtils.stringForQuery(helper.getReadableDatabase(),
+                    "PRAGMA journal_mode", null));
+        } finally {
+            helper.close();
+        }
+    }
+
+    @Test
+    public void readsTheLastCommitWhileATransactionIsOpen() throws InterruptedException {
+
+        final CountDownLatch written = new CountDownLatch(1);
+        final CountDownLatch read = new CountDownLatch(1);
+
+        // A second connection keeps a write transaction open until the reader is done
+        final PetDbHelper helper = new PetDbHelper(mContext);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SQLiteDatabase db = helper.getWritableDatabase();
+                db.beginTransaction();
+                try {
+                    ContentValues values = new ContentValues();
+                    values.put(PetEntry.COLUMN_DELETED, 1);
+                    db.update(PetEntry.TABLE_NAME, values, null, null);
+                    written.countDown();
+                    read.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        });
+        writer.start();
+
+        try {
+            written.await();
+            long start = System.nanoTime();
+            assertEquals(1000, TestPetProvider.queryIds(mProvider).length);
+            long millis = (System.nanoTime() - start) / 1000000;
+            Log.i(LOG_TAG, "Read 1000 pets in " + millis + " ms during a write transaction");
+        } finally {
+            read.countDown();
+            writer.join();
+            helper.close();
+        }
+    }
+
+    @Test
+    public void measuresTheReadLatencyWhileWriting() throws InterruptedException {
+
+        final AtomicInteger batches = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicBoolean stop = new AtomicBoolean();
+
+        // The writer commits one bulk insert after the other until the reads are done
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ContentValues[] values = new ContentValues[WRITE_BATCH];
+                for(int i = 0; i < WRITE_BATCH; i++){
+                    values[i] = TestPetProvider.createPet(i);
+                }
+                started.countDown();
+                while(!stop.get()){
+                    mProvider.bulkInsert(PetEntry.CONTENT_URI, values);
+                    batches.incrementAndGet();
+                }
+            }
+        });
+        writer.start();
+        started.await();
+
+        long[] latencies = new long[READS];
+        int batchesBefore = batches.get();
+        try {
+            for(int i = 0; i < READS; i++){
+                long start = System.nanoTime();
+                Cursor cursor = mProvider.query(PetEntry.buildPageUri(i, 50),
+                        PetEntry.PROJECTION_LIST, null, null, null);
+                try {
+                    cursor.getCount();
+                } finally {
+                    cursor.close();
+                }
+                latencies[i] = System.nanoTime() - start;
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+        int batchesDuring = batches.get() - batchesBefore;
+
+        Arrays.sort(latencies);
+        Log.i(LOG_TAG, "Page query while " + batchesDuring + " bulk inserts committed: p50 "
+                + latencies[READS / 2] / 1000 + " us, p99 " + latencies[READS * 99 / 100] / 1000
+                + " us, max " + latencies[READS - 1] / 1000 + " us");
+
+        // The latencies depend on the device, so they are only logged
+        assertTrue("The writer did not run during the reads", batchesDuring > 0);
+    }
+}
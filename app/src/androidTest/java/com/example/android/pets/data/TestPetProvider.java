@@ -0,0 +1,93 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.pm.ProviderInfo;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.test.RenamingDelegatingContext;
+
+import static com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * This class creates PetProviders for the instrumentation tests. Every provider has its own
+ * database with the "test-" prefix, so the tests never touch the pets of the app
+ */
+final class TestPetProvider {
+
+    // The name which PetDbHelper gives the database, the context adds the prefix
+    static final String DATABASE_NAME = "pets.db";
+
+    // Private constructor so there cannot be any instance from this class
+    private TestPetProvider(){
+
+    }
+
+    /**
+     * This method returns a context whose databases are separate from the ones of the app
+     * @return the context of the tests
+     */
+    static Context createContext() {
+        return new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(), "test-");
+    }
+
+    /**
+     * This method creates a provider on an empty database
+     * @param context is the context which createContext() returned
+     * @return the provider
+     */
+    static PetProvider create(Context context) {
+
+        context.deleteDatabase(DATABASE_NAME);
+
+        PetProvider provider = new PetProvider();
+        ProviderInfo info = new ProviderInfo();
+        info.authority = PetContract.CONTENT_AUTHORITY;
+        provider.attachInfo(context, info);
+        return provider;
+    }
+
+    /**
+     * This method closes a provider and deletes its database
+     * @param context is the context of the provider
+     * @param provider is the provider which create() returned
+     */
+    static void destroy(Context context, PetProvider provider) {
+        provider.shutdown();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    // Returns the data of the pet with the given number
+    static ContentValues createPet(int number) {
+        ContentValues values = new ContentValues(4);
+        values.put(PetEntry.COLUMN_NAME, "Pet " + number);
+        values.put(PetEntry.COLUMN_BREED, "Breed " + number % 10);
+        values.put(PetEntry.COLUMN_GENDER, number % 3);
+        values.put(PetEntry.COLUMN_WEIGHT, number % 100);
+        return values;
+    }
+
+    // Inserts the given number of pets with one bulk insert
+    static void insertPets(PetProvider provider, int count) {
+        ContentValues[] values = new ContentValues[count];
+        for(int i = 0; i < count; i++){
+            values[i] = createPet(i);
+        }
+        provider.bulkInsert(PetEntry.CONTENT_URI, values);
+    }
+
+    // Returns the _IDs of all the pets which the provider returns, in order
+    static long[] queryIds(PetProvider provider) {
+        Cursor cursor = provider.query(PetEntry.CONTENT_URI, new String[]{ PetEntry._ID },
+                null, null, PetEntry._ID);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for(int i = 0; cursor.moveToNext(); i++){
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+}
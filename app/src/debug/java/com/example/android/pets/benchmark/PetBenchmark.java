@@ -0,0 +1,736 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.pm.ProviderInfo;
+import android.database.Cursor;
+import android.database.DatabaseErrorHandler;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Debug;
+import android.test.mock.MockContentResolver;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetExporter;
+import com.example.android.pets.data.PetImporter;
+import com.example.android.pets.data.PetDbHelper;
+import com.example.android.pets.data.PetProvider;
+import com.example.android.pets.data.PetWriter;
+import com.example.android.pets.data.PetWritePaths;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * This class measures the PetProvider data layer. For every table size it creates a provider
+ * on its own database, fills it with bulk inserts and then measures:
+ *
+ * insert, bulk insert, update by _ID, delete by _ID, full scan and filtered query
+ *
+ * the prepared statements of the provider against the SQLiteDatabase insert and update they
+ * replaced, with the bytes allocated per operation, concurrent inserts with one transaction
+ * per insert against the group commits of a PetWriter, the CSV and NDJSON export of the whole
+ * table with the peak heap, the round trip of the table through a binary snapshot and through
+ * a CSV file with the file sizes, and the migration of a database of the oldest migratable
+ * version to the current one.
+ *
+ * Every operation runs some warm-up iterations first, then records the latency of every
+ * iteration. The results are the throughput and the latency percentiles of every operation
+ * and size, as JSON.
+ *
+ * The provider is called directly, not through a ContentResolver, so the numbers are the cost
+ * of the data layer without the binder. The benchmark databases are separate from pets.db,
+ * and the content resolver of the benchmark provider discards its change notifications, so
+ * the observers of the real pets URIs, like an open catalog, never see the benchmark.
+ */
+public class PetBenchmark {
+
+    // Log tag
+    private static final String LOG_TAG = PetBenchmark.class.getSimpleName();
+
+    // Prefix of the names of the benchmark databases
+    private static final String DATABASE_PREFIX = "benchmark-";
+
+    // Number of pets in one bulk insert
+    private static final int BULK_INSERT_SIZE = 1000;
+
+    // Maximum number of measured single row operations
+    private static final int MAX_ROW_OPERATIONS = 1000;
+
+    // Number of iterations of the full scan, which are fewer for bigger tables
+    private static final int MIN_SCAN_ITERATIONS = 3;
+    private static final int MAX_SCAN_ITERATIONS = 100;
+
+    // Number of distinct breeds, so a filtered query by breed returns 1% of the pets
+    private static final int BREEDS = 100;
+
+    // Seed of the random _IDs, so every run touches the same pets
+    private static final long SEED = 42;
+
+    // Multiplier which spreads the deleted _IDs over the table. It is a prime which is not a
+    // factor of any of the table sizes, so the first N multiples are N distinct _IDs
+    private static final int DELETE_STRIDE = 7919;
+
+    // Number of threads which insert at the same time
+    private static final int CONCURRENT_WRITERS = 8;
+
+    // The oldest database version which PetDbHelper migrates without losing the pets
+    private static final int MIGRATION_FROM_VERSION = 5;
+
+    // The pets table of MIGRATION_FROM_VERSION
+    private static final String SQL_CREATE_MIGRATION_TABLE = "CREATE TABLE "
+            + PetEntry.TABLE_NAME + "(" + PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + PetEntry.COLUMN_NAME + " TEXT NOT NULL, "
+            + PetEntry.COLUMN_BREED + " TEXT NOT NULL, "
+            + PetEntry.COLUMN_GENDER + " INTEGER NOT NULL, "
+            + PetEntry.COLUMN_WEIGHT + " INTEGER NOT NULL);";
+
+    // Context whose databases are renamed for the benchmark
+    private final BenchmarkContext mContext;
+
+    // Random source of the updated _IDs
+    private final Random mRandom = new Random(SEED);
+
+    /**
+     * Public constructor to create a benchmark
+     * @param context is any context of the app
+     */
+    public PetBenchmark(Context context) {
+        mContext = new BenchmarkContext(context.getApplicationContext());
+    }
+
+    /**
+     * This method runs the benchmark for every table size
+     * @param sizes are the numbers of pets the operations are measured with
+     * @return the results as a JSON object
+     * @throws JSONException if the results cannot be written as JSON
+     */
+    public JSONObject run(int[] sizes) throws JSONException {
+
+        JSONArray results = new JSONArray();
+        for(int size : sizes){
+            runSize(size, results);
+            runMigration(size, results);
+        }
+
+        JSONObject report = new JSONObject();
+        report.put("benchmark", "PetProvider");
+        report.put("timestamp", System.currentTimeMillis());
+        report.put("device", Build.MANUFACTURER + " " + Build.MODEL);
+        report.put("sdk", Build.VERSION.SDK_INT);
+        report.put("results", results);
+        return report;
+    }
+
+    // Measures all the operations on a table of the given size
+    private void runSize(int size, JSONArray results) throws JSONException {
+
+        // The name which PetDbHelper gives the database, the context adds the prefix
+        final String database = "pets.db";
+        mContext.deleteDatabase(database);
+
+        PetProvider provider = new PetProvider();
+        ProviderInfo info = new ProviderInfo();
+        info.authority = PetContract.CONTENT_AUTHORITY;
+        provider.attachInfo(mContext, info);
+        mContext.addProvider(provider);
+
+        try {
+            Log.i(LOG_TAG, "Measuring " + size + " pets");
+
+            // Fill the table, which measures the bulk insert
+            Recorder bulkInsert = new Recorder(size, "bulk_insert", BULK_INSERT_SIZE);
+            int inserted = 0;
+            while(inserted < size){
+                int count = Math.min(BULK_INSERT_SIZE, size - inserted);
+                ContentValues[] values = new ContentValues[count];
+                for(int i = 0; i < count; i++){
+                    values[i] = createPet(inserted + i);
+                }
+                long start = System.nanoTime();
+                inserted += provider.bulkInsert(PetEntry.CONTENT_URI, values);
+                bulkInsert.record(start);
+            }
+            results.put(bulkInsert.toJson());
+
+            int operations = Math.min(MAX_ROW_OPERATIONS, size);
+
+            // Insert single pets
+            Recorder insert = new Recorder(size, "insert", 1);
+            int number = size;
+            for(int i = -warmUp(operations); i < operations; i++){
+                ContentValues values = createPet(number++);
+                long start = System.nanoTime();
+                provider.insert(PetEntry.CONTENT_URI, values);
+                insert.record(start, i);
+            }
+            results.put(insert.toJson());
+
+            // Update random pets by _ID
+            Recorder update = new Recorder(size, "update_by_id", 1);
+            for(int i = -warmUp(operations); i < operations; i++){
+                long id = 1 + mRandom.nextInt(size);
+                ContentValues values = createPet(mRandom.nextInt(size));
+                long start = System.nanoTime();
+                provider.update(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id), values,
+                        null, null);
+                update.record(start, i);
+            }
+            results.put(update.toJson());
+
+            // Insert and update with and without the prepared statements
+            number = measureWritePaths(size, operations, number, results);
+
+            // Insert from several threads with and without group commits
+            number = measureConcurrentInserts(provider, size, operations, number, results);
+
+            // Export the whole table in both formats
+            measureExport(provider, size, PetContract.FORMAT_CSV, results);
+            measureExport(provider, size, PetContract.FORMAT_NDJSON, results);
+
+            // Read the whole table
+            int scans = Math.max(MIN_SCAN_ITERATIONS,
+                    Math.min(MAX_SCAN_ITERATIONS, 1000000 / size));
+            Recorder scan = new Recorder(size, "full_scan", size);
+            for(int i = -1; i < scans; i++){
+                long start = System.nanoTime();
+                readAll(provider.query(PetEntry.CONTENT_URI, null, null, null, null));
+                scan.record(start, i);
+            }
+            results.put(scan.toJson());
+
+            // Read the pets of one breed
+            Recorder filter = new Recorder(size, "filtered_query", Math.max(1, size / BREEDS));
+            for(int i = -warmUp(operations); i < operations; i++){
+                String[] args = { "Breed " + mRandom.nextInt(BREEDS) };
+                long start = System.nanoTime();
+                readAll(provider.query(PetEntry.CONTENT_URI, null,
+                        PetEntry.COLUMN_BREED + "=?", args, null));
+                filter.record(start, i);
+            }
+            results.put(filter.toJson());
+
+            // Delete distinct pets by _ID
+            Recorder delete = new Recorder(size, "delete_by_id", 1);
+            int warmUp = warmUp(operations);
+            int deletes = Math.min(operations, size - warmUp);
+            for(int i = -warmUp; i < deletes; i++){
+                long id = 1 + (long) (i + warmUp) * DELETE_STRIDE % size;
+                long start = System.nanoTime();
+                provider.delete(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id), null, null);
+                delete.record(start, i);
+            }
+            results.put(delete.toJson());
+
+            // Write the table out and restore it, which replaces all the pets
+            measureRoundTrips(provider, size, results);
+        } finally {
+            provider.shutdown();
+            mContext.deleteDatabase(database);
+        }
+    }
+
+    // Measures the inserts and updates of the prepared statements and of the SQLiteDatabase
+    // methods, and returns the number of the next pet
+    private int measureWritePaths(int size, int operations, int number, JSONArray results)
+            throws JSONException {
+
+        PetWritePaths paths = new PetWritePaths(mContext);
+        try {
+            for(int path = 0; path < 2; path++){
+                boolean prepared = path == 0;
+
+                Recorder insert = new Recorder(size,
+                        prepared ? "insert_prepared" : "insert_compiled", 1);
+                for(int i = -warmUp(operations); i < operations; i++){
+                    ContentValues values = createPet(number++);
+                    if(i == 0){
+                        insert.startCountingAllocations(operations);
+                    }
+                    long start = System.nanoTime();
+                    if(prepared){
+                        paths.insertPrepared(values);
+                    } else {
+                        paths.insertCompiled(values);
+                    }
+                    insert.record(start, i);
+                }
+                insert.stopCountingAllocations();
+                results.put(insert.toJson());
+
+                Recorder update = new Recorder(size,
+                        prepared ? "update_by_id_prepared" : "update_by_id_compiled", 1);
+                for(int i = -warmUp(operations); i < operations; i++){
+                    long id = 1 + mRandom.nextInt(size);
+                    ContentValues values = createPet(mRandom.nextInt(size));
+                    if(i == 0){
+                        update.startCountingAllocations(operations);
+                    }
+                    long start = System.nanoTime();
+                    if(prepared){
+                        paths.updatePrepared(id, values);
+                    } else {
+                        paths.updateCompiled(id, values);
+                    }
+                    update.record(start, i);
+                }
+                update.stopCountingAllocations();
+                results.put(update.toJson());
+            }
+        } finally {
+            paths.close();
+        }
+        return number;
+    }
+
+    // Measures the inserts of CONCURRENT_WRITERS threads, with one transaction per insert and
+    // with the group commits of a PetWriter, and returns the number of the next pet
+    private int measureConcurrentInserts(final PetProvider provider, int size, int operations,
+                                         int number, JSONArray results) throws JSONException {
+
+        // The writer applies its groups to the benchmark provider instead of the app's one
+        MockContentResolver resolver = new MockContentResolver(mContext);
+        resolver.addProvider(PetContract.CONTENT_AUTHORITY, provider);
+        final PetWriter writer = new PetWriter(resolver);
+
+        final int insertsPerThread = Math.max(1, operations / CONCURRENT_WRITERS);
+        try {
+            for(int path = 0; path < 2; path++){
+                final boolean grouped = path == 1;
+                final Recorder recorder = new Recorder(size,
+                        grouped ? "insert_group_commit" : "insert_per_call", 1);
+                final AtomicReference<Exception> error = new AtomicReference<>();
+
+                Thread[] threads = new Thread[CONCURRENT_WRITERS];
+                long start = System.nanoTime();
+                for(int t = 0; t < CONCURRENT_WRITERS; t++){
+                    final int first = number + t * insertsPerThread;
+                    threads[t] = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                for(int i = 0; i < insertsPerThread; i++){
+                                    ContentValues values = createPet(first + i);
+                                    long insertStart = System.nanoTime();
+                                    if(grouped){
+                                        writer.submit(ContentProviderOperation
+                                                .newInsert(PetEntry.CONTENT_URI)
+                                                .withValues(values)
+                                                .build()).get();
+                                    } else {
+                                        provider.insert(PetEntry.CONTENT_URI, values);
+                                    }
+                                    recorder.record(insertStart);
+                                }
+                            } catch (InterruptedException | ExecutionException
+                                    | RuntimeException e) {
+                                error.compareAndSet(null, e);
+                            }
+                        }
+                    });
+                    threads[t].start();
+                }
+                try {
+                    for(Thread thread : threads){
+                        thread.join();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted", e);
+                }
+                if(error.get() != null){
+                    throw new IllegalStateException("Concurrent insert failed", error.get());
+                }
+
+                // The latencies of the threads overlap, so the throughput is measured on the
+                // wall clock
+                double seconds = (System.nanoTime() - start) / 1e9;
+                int inserts = CONCURRENT_WRITERS * insertsPerThread;
+                number += inserts;
+                recorder.put("threads", CONCURRENT_WRITERS);
+                recorder.put("wall_rows_per_second", seconds == 0 ? 0 : inserts / seconds);
+                results.put(recorder.toJson());
+            }
+        } finally {
+            writer.shutdown();
+        }
+        return number;
+    }
+
+    // Measures the export of the whole table, and the peak heap while it runs. The exporter
+    // reads the table in chunks, so the heap should not grow with the table
+    private void measureExport(PetProvider provider, int size, String format, JSONArray results)
+            throws JSONException {
+
+        MockContentResolver resolver = new MockContentResolver(mContext);
+        resolver.addProvider(PetContract.CONTENT_AUTHORITY, provider);
+
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+
+        HeapSamplingOutputStream outputStream = new HeapSamplingOutputStream();
+        long start = System.nanoTime();
+        long rows;
+        try {
+            rows = new PetExporter(resolver).exportPets(outputStream, format, null);
+        } catch (IOException e) {
+            throw new IllegalStateException("Export failed", e);
+        }
+        Recorder export = new Recorder(size, "export_" + format, (int) rows);
+        export.record(start);
+
+        export.put("bytes", outputStream.mBytes);
+        export.put("heap_before_bytes", heapBefore);
+        export.put("peak_heap_bytes", outputStream.mPeakHeap);
+        export.put("peak_heap_growth_bytes", Math.max(0, outputStream.mPeakHeap - heapBefore));
+        export.put("peak_native_heap_bytes", outputStream.mPeakNativeHeap);
+        results.put(export.toJson());
+    }
+
+    // Measures the round trip of the whole table through a binary snapshot and through a CSV
+    // file. Both restores replace all the pets, the CSV one by deleting them and importing the
+    // file through the provider
+    private void measureRoundTrips(PetProvider provider, int size, JSONArray results)
+            throws JSONException {
+
+        MockContentResolver resolver = new MockContentResolver(mContext);
+        resolver.addProvider(PetContract.CONTENT_AUTHORITY, provider);
+        File snapshot = new File(mContext.getCacheDir(), DATABASE_PREFIX + "pets.snapshot");
+        File csv = new File(mContext.getCacheDir(), DATABASE_PREFIX + "pets.csv");
+
+        try {
+            long start = System.nanoTime();
+            Bundle written = provider.call(PetContract.METHOD_CREATE_SNAPSHOT,
+                    snapshot.getPath(), null);
+            int rows = written.getInt(PetContract.KEY_SNAPSHOT_ROWS);
+            Recorder snapshotWrite = new Recorder(size, "snapshot_write", rows);
+            snapshotWrite.record(start);
+            snapshotWrite.put("bytes", snapshot.length());
+            results.put(snapshotWrite.toJson());
+
+            start = System.nanoTime();
+            provider.call(PetContract.METHOD_RESTORE_SNAPSHOT, snapshot.getPath(), null);
+            Recorder snapshotRestore = new Recorder(size, "snapshot_restore", rows);
+            snapshotRestore.record(start);
+            snapshotRestore.put("bytes", snapshot.length());
+            results.put(snapshotRestore.toJson());
+
+            start = System.nanoTime();
+            OutputStream outputStream = new FileOutputStream(csv);
+            long csvRows;
+            try {
+                csvRows = new PetExporter(resolver).exportPets(outputStream,
+                        PetContract.FORMAT_CSV, null);
+            } finally {
+                outputStream.close();
+            }
+            Recorder csvWrite = new Recorder(size, "csv_write", (int) csvRows);
+            csvWrite.record(start);
+            csvWrite.put("bytes", csv.length());
+            results.put(csvWrite.toJson());
+
+            start = System.nanoTime();
+            provider.delete(PetEntry.CONTENT_URI, null, null);
+            PetImporter.Result imported =
+                    new PetImporter(resolver).importPets(new FileInputStream(csv), null);
+            Recorder csvRestore = new Recorder(size, "csv_restore", (int) imported.rowsImported);
+            csvRestore.record(start);
+            csvRestore.put("bytes", csv.length());
+            results.put(csvRestore.toJson());
+        } catch (IOException e) {
+            throw new IllegalStateException("Round trip failed", e);
+        } finally {
+            snapshot.delete();
+            csv.delete();
+        }
+    }
+
+    // Measures the migration of a database with the given number of pets from
+    // MIGRATION_FROM_VERSION to the current version
+    private void runMigration(int size, JSONArray results) throws JSONException {
+
+        final String database = "pets.db";
+        mContext.deleteDatabase(database);
+
+        try {
+            Log.i(LOG_TAG, "Measuring the migration of " + size + " pets");
+
+            // Create the old database with one statement in one transaction
+            SQLiteDatabase db = mContext.openOrCreateDatabase(database, 0, null);
+            try {
+                db.execSQL(SQL_CREATE_MIGRATION_TABLE);
+                db.beginTransaction();
+                SQLiteStatement insert = db.compileStatement("INSERT INTO "
+                        + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_NAME + ", "
+                        + PetEntry.COLUMN_BREED + ", " + PetEntry.COLUMN_GENDER + ", "
+                        + PetEntry.COLUMN_WEIGHT + ") VALUES (?, ?, ?, ?)");
+                try {
+                    for(int i = 0; i < size; i++){
+                        ContentValues values = createPet(i);
+                        insert.bindString(1, values.getAsString(PetEntry.COLUMN_NAME));
+                        insert.bindString(2, values.getAsString(PetEntry.COLUMN_BREED));
+                        insert.bindLong(3, values.getAsInteger(PetEntry.COLUMN_GENDER));
+                        insert.bindLong(4, values.getAsInteger(PetEntry.COLUMN_WEIGHT));
+                        insert.executeInsert();
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    insert.close();
+                    db.endTransaction();
+                }
+                db.setVersion(MIGRATION_FROM_VERSION);
+            } finally {
+                db.close();
+            }
+
+            // Opening the database runs all the migrations in one transaction
+            Recorder migration = new Recorder(size, "migration", size);
+            PetDbHelper helper = new PetDbHelper(mContext);
+            try {
+                long start = System.nanoTime();
+                helper.getWritableDatabase();
+                migration.record(start);
+            } finally {
+                helper.close();
+            }
+            results.put(migration.toJson());
+        } finally {
+            mContext.deleteDatabase(database);
+        }
+    }
+
+    // Returns the number of iterations which run before the measured ones
+    private static int warmUp(int operations) {
+        return Math.max(1, operations / 10);
+    }
+
+    // Returns the data of the pet with the given number
+    private static ContentValues createPet(int number) {
+        ContentValues values = new ContentValues(4);
+        values.put(PetEntry.COLUMN_NAME, "Pet " + number);
+        values.put(PetEntry.COLUMN_BREED, "Breed " + number % BREEDS);
+        values.put(PetEntry.COLUMN_GENDER, number % 3);
+        values.put(PetEntry.COLUMN_WEIGHT, number % 100);
+        return values;
+    }
+
+    // Reads every row of a cursor and closes it
+    private static void readAll(Cursor cursor) {
+        try {
+            while(cursor.moveToNext()){
+                cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * The recorded latencies of one operation at one table size
+     */
+    private static class Recorder {
+
+        private final int mSize;
+        private final String mOperation;
+        private final int mRowsPerOperation;
+
+        // Latencies of the measured iterations in nanoseconds
+        private long[] mLatencies = new long[16];
+        private int mCount;
+
+        // Bytes which the measured iterations allocated on this thread, or -1 if they are not
+        // counted
+        private long mAllocatedBytes = -1;
+
+        // Results of the operation which are not latencies
+        private final Map<String, Double> mExtras = new HashMap<>();
+
+        Recorder(int size, String operation, int rowsPerOperation) {
+            mSize = size;
+            mOperation = operation;
+            mRowsPerOperation = rowsPerOperation;
+        }
+
+        // Adds a result which is not a latency
+        void put(String name, double value) {
+            mExtras.put(name, value);
+        }
+
+        // Records the iteration which started at the given time. Several threads may record
+        // the iterations of one operation
+        synchronized void record(long start) {
+            long latency = System.nanoTime() - start;
+            if(mCount == mLatencies.length){
+                mLatencies = Arrays.copyOf(mLatencies, mCount * 2);
+            }
+            mLatencies[mCount++] = latency;
+        }
+
+        // Starts counting the allocations of the thread, before the first measured iteration.
+        // The latencies are allocated up front, so only the operations are counted
+        @SuppressWarnings("deprecation")
+        void startCountingAllocations(int iterations) {
+            if(mLatencies.length - mCount < iterations){
+                mLatencies = Arrays.copyOf(mLatencies, mCount + iterations);
+            }
+            Debug.startAllocCounting();
+            Debug.resetThreadAllocSize();
+        }
+
+        // Stops counting the allocations, after the last measured iteration
+        @SuppressWarnings("deprecation")
+        void stopCountingAllocations() {
+            mAllocatedBytes = Debug.getThreadAllocSize();
+            Debug.stopAllocCounting();
+        }
+
+        // Records the iteration which started at the given time, unless it is a warm-up
+        // iteration, which has a negative index
+        void record(long start, int iteration) {
+            if(iteration >= 0){
+                record(start);
+            }
+        }
+
+        // Returns the results as a JSON object
+        synchronized JSONObject toJson() throws JSONException {
+
+            long[] latencies = Arrays.copyOf(mLatencies, mCount);
+            Arrays.sort(latencies);
+            long total = 0;
+            for(long latency : latencies){
+                total += latency;
+            }
+            double seconds = total / 1e9;
+
+            JSONObject result = new JSONObject();
+            result.put("table_size", mSize);
+            result.put("operation", mOperation);
+            result.put("iterations", mCount);
+            result.put("ops_per_second", seconds == 0 ? 0 : mCount / seconds);
+            result.put("rows_per_second",
+                    seconds == 0 ? 0 : (double) mCount * mRowsPerOperation / seconds);
+            result.put("mean_us", mCount == 0 ? 0 : total / mCount / 1000.0);
+            result.put("p50_us", percentile(latencies, 50) / 1000.0);
+            result.put("p90_us", percentile(latencies, 90) / 1000.0);
+            result.put("p99_us", percentile(latencies, 99) / 1000.0);
+            result.put("max_us", mCount == 0 ? 0 : latencies[mCount - 1] / 1000.0);
+            if(mAllocatedBytes >= 0){
+                result.put("alloc_bytes_per_op",
+                        mCount == 0 ? 0 : (double) mAllocatedBytes / mCount);
+            }
+            for(Map.Entry<String, Double> extra : mExtras.entrySet()){
+                result.put(extra.getKey(), extra.getValue());
+            }
+
+            Log.i(LOG_TAG, result.toString());
+            return result;
+        }
+
+        // Returns the given percentile of sorted latencies, with the nearest-rank method
+        private static long percentile(long[] latencies, int percentile) {
+            if(latencies.length == 0){
+                return 0;
+            }
+            int rank = (int) Math.ceil(percentile / 100.0 * latencies.length);
+            return latencies[Math.max(0, rank - 1)];
+        }
+    }
+
+    /**
+     * Output stream which drops the exported bytes, and samples the used Java and native heap
+     * every time the exporter flushes its buffer
+     */
+    private static class HeapSamplingOutputStream extends OutputStream {
+
+        private long mBytes;
+        private long mPeakHeap;
+        private long mPeakNativeHeap;
+
+        @Override
+        public void write(int b) {
+            mBytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            mBytes += len;
+            Runtime runtime = Runtime.getRuntime();
+            mPeakHeap = Math.max(mPeakHeap, runtime.totalMemory() - runtime.freeMemory());
+            mPeakNativeHeap = Math.max(mPeakNativeHeap, Debug.getNativeHeapAllocatedSize());
+        }
+    }
+
+    /**
+     * Context which gives every database the benchmark prefix, so the benchmark never touches
+     * the databases of the app. Its content resolver only reaches the benchmark provider and
+     * drops the change notifications
+     */
+    private static class BenchmarkContext extends ContextWrapper {
+
+        private final MockContentResolver mContentResolver;
+
+        BenchmarkContext(Context base) {
+            super(base);
+            mContentResolver = new MockContentResolver(this);
+        }
+
+        // Routes the pets URIs of the content resolver to the given provider
+        void addProvider(ContentProvider provider) {
+            mContentResolver.addProvider(PetContract.CONTENT_AUTHORITY, provider);
+        }
+
+        @Override
+        public ContentResolver getContentResolver() {
+            return mContentResolver;
+        }
+
+        @Override
+        public SQLiteDatabase openOrCreateDatabase(String name, int mode,
+                                                   SQLiteDatabase.CursorFactory factory) {
+            return super.openOrCreateDatabase(DATABASE_PREFIX + name, mode, factory);
+        }
+
+        @Override
+        public SQLiteDatabase openOrCreateDatabase(String name, int mode,
+                                                   SQLiteDatabase.CursorFactory factory,
+                                                   DatabaseErrorHandler errorHandler) {
+            return super.openOrCreateDatabase(DATABASE_PREFIX + name, mode, factory,
+                    errorHandler);
+        }
+
+        @Override
+        public File getDatabasePath(String name) {
+            return super.getDatabasePath(DATABASE_PREFIX + name);
+        }
+
+        @Override
+        public boolean deleteDatabase(String name) {
+            return super.deleteDatabase(DATABASE_PREFIX + name);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.android.pets.benchmark;
+
+import android.app.IntentService;
+import android.content.Intent;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Service which runs the PetBenchmark in the background and writes its results to
+ * files/benchmark/pets-<timestamp>.json. It only exists in the debug build, and only callers
+ * with the DUMP permission, like the adb shell, can start it:
+ *
+ * adb shell am startservice -n com.example.android.pets/.benchmark.PetBenchmarkService \
+ *         --es sizes 1000,100000,1000000
+ * adb shell run-as com.example.android.pets cat files/benchmark/pets-<timestamp>.json
+ */
+public class PetBenchmarkService extends IntentService {
+
+    // Intent extra with the comma-separated table sizes
+    public static final String EXTRA_SIZES = "sizes";
+
+    // Log tag
+    private static final String LOG_TAG = PetBenchmarkService.class.getSimpleName();
+
+    // Table sizes which are measured when the intent has no sizes
+    private static final String DEFAULT_SIZES = "1000,100000,1000000";
+
+    // Directory of the result files in the files directory of the app
+    private static final String RESULTS_DIRECTORY = "benchmark";
+
+    public PetBenchmarkService() {
+        super(LOG_TAG);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+
+        String extra = intent == null ? null : intent.getStringExtra(EXTRA_SIZES);
+        String[] values = (extra == null ? DEFAULT_SIZES : extra).split(",");
+        int[] sizes = new int[values.length];
+        for(int i = 0; i < values.length; i++){
+            sizes[i] = Integer.parseInt(values[i].trim());
+        }
+
+        try {
+            JSONObject report = new PetBenchmark(this).run(sizes);
+
+            File directory = new File(getFilesDir(), RESULTS_DIRECTORY);
+            if(!directory.isDirectory() && !directory.mkdirs()){
+                throw new IOException("Cannot create " + directory);
+            }
+            File file = new File(directory, "pets-" + report.getLong("timestamp") + ".json");
+            Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            try {
+                writer.write(report.toString(2));
+            } finally {
+                writer.close();
+            }
+            Log.i(LOG_TAG, "Benchmark results written to " + file);
+        } catch (IOException | JSONException e) {
+            Log.e(LOG_TAG, "Benchmark failed", e);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import static com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * This class gives the PetBenchmark, which is in another package, the two write paths of the
+ * PetProvider: the prepared statements of PetStatements, and the SQLiteDatabase methods which
+ * the provider falls back to for partial content values. Both write the same rows, so the
+ * benchmark measures what reusing the statements saves. It only exists in the debug build
+ */
+public class PetWritePaths {
+
+    // Database helper of the benchmark database
+    private final PetDbHelper mDbHelper;
+
+    // The prepared statements, which are only used by the benchmark thread
+    private final PetStatements mStatements;
+
+    /**
+     * Public constructor to open the database of the given context
+     * @param context is the context of the benchmark database
+     */
+    public PetWritePaths(Context context) {
+        mDbHelper = new PetDbHelper(context);
+        mStatements = new PetStatements(mDbHelper);
+    }
+
+    // Inserts a pet with the prepared statement
+    public long insertPrepared(ContentValues contentValues) {
+        return mStatements.insert(contentValues);
+    }
+
+    // Inserts a pet with SQLiteDatabase.insert()
+    public long insertCompiled(ContentValues contentValues) {
+        return mDbHelper.getWritableDatabase().insert(PetEntry.TABLE_NAME, null,
+                mStatements.toTableValues(contentValues));
+    }
+
+    // Updates a pet by _ID with the prepared statement
+    public int updatePrepared(long id, ContentValues contentValues) {
+        return mStatements.updateById(id, contentValues);
+    }
+
+    // Updates a pet by _ID with SQLiteDatabase.update()
+    public int updateCompiled(long id, ContentValues contentValues) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        return db.update(PetEntry.TABLE_NAME, mStatements.toTableValues(contentValues),
+                PetEntry._ID + " = ? AND " + PetDbHelper.LIVE_SELECTION,
+                new String[]{ String.valueOf(id) });
+    }
+
+    /**
+     * This method closes the database
+     */
+    public void close() {
+        mDbHelper.close();
+    }
+}
@@ -15,40 +15,111 @@
  */
 package com.example.android.pets;
 
+import android.content.AsyncQueryHandler;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.NotificationManagerCompat;
 import android.support.v4.content.Loader;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.util.Log;
+import android.util.SparseBooleanArray;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetCursor;
 import com.example.android.pets.data.PetDbHelper;
+import com.example.android.pets.data.PetImporter;
+import com.example.android.pets.data.PetWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import static com.example.android.pets.data.PetContract.*;
 
 /**
  * Displays list of pets that were entered and stored in the app.
  */
-public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor>{
+public class CatalogActivity extends AppCompatActivity
+        implements LoaderManager.LoaderCallbacks<List<PetAdapter.PetItem>>{
+    // Log tag
+    private static final String LOG_TAG = CatalogActivity.class.getSimpleName();
+    // Request code of the file picker which chooses the file to import
+    private static final int REQUEST_IMPORT = 1;
+    // ID of the notification which shows the progress of deleting all the pets
+    private static final int NOTIFICATION_DELETE_ALL = 1;
+    // The loader of the first page, the loader of page N has the ID PET_LOADER_ID + N
     private static final int PET_LOADER_ID = 0;
+    // Loader bundle key for the _ID after which a page starts
+    private static final String LOADER_BUNDLE_AFTER_ID = "after_id";
+    // Loader bundle key for the _ID of the last pet which may be in a page
+    private static final String LOADER_BUNDLE_UP_TO_ID = "up_to_id";
+    // Number of pets which are loaded in one page
+    private static final int PAGE_SIZE = 50;
+    // Number of rows before the end of the list at which the next page is loaded
+    private static final int PAGE_PREFETCH_DISTANCE = 10;
+    // The rows of the loaded pages, in order. A page is null while it is loading for the first
+    // time
+    private final ArrayList<List<PetAdapter.PetItem>> mPages = new ArrayList<>();
+    // The _ID after which every page starts
+    private final ArrayList<Long> mPageAfterIds = new ArrayList<>();
+    // The pages whose loaders are running
+    private final SparseBooleanArray mLoadingPages = new SparseBooleanArray();
+    // Whether the last page is the end of the pets table
+    private boolean mEndReached;
+    // Handler which fetches single changed pets on a background thread
+    private AsyncQueryHandler mQueryHandler;
+
+    // Observer of the pets table. The provider notifies the change of a single pet with its
+    // row URI, which is patched into the loaded pages, and the change of several pets with
+    // the table URI, which reloads the pages
+    private final ContentObserver mPetObserver = new ContentObserver(new Handler()) {
+        @Override
+        public void onChange(boolean selfChange) {
+            // Before API 16 the changed URI is not known
+            reloadPages();
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            String operation = uri == null ? null
+                    : uri.getQueryParameter(QUERY_PARAMETER_OPERATION);
+            if(operation != null && uri.getPathSegments().size() == 2){
+                onPetChanged(ContentUris.parseId(uri), operation);
+            } else {
+                reloadPages();
+            }
+        }
+    };
     // Member object of the pet list view adapter
     private PetAdapter mPetAdapter;
     // Member object of the pet list view
-    private ListView mPetListView;
+    private RecyclerView mPetListView;
+    // Member object of the view which is shown when there are no pets
+    private View mEmptyView;
     // Member object of the database helper class
     private PetDbHelper mDbHelper;
 
@@ -68,32 +139,286 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         });
 
         // Get link from the pet list view
-        mPetListView = (ListView) findViewById(R.id.pet_list);
-
-        // Set empty view to the pet list view in case there is no data to be displayed
-        mPetListView.setEmptyView(findViewById(R.id.empty_view));
+        mPetListView = (RecyclerView) findViewById(R.id.pet_list);
+        mEmptyView = findViewById(R.id.empty_view);
 
-        // Create a temporary null pet adapter attach it to the list view
-        mPetAdapter = new PetAdapter(this, null);
-        mPetListView.setAdapter(mPetAdapter);
-
-        mPetListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Create a temporary null pet adapter attach it to the list view. Clicking on a pet
+        // opens it in the EditorActivity
+        mPetAdapter = new PetAdapter(new PetAdapter.OnPetClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onPetClick(long id) {
 
                 Intent editPetIntent = new Intent(CatalogActivity.this, EditorActivity.class);
                 editPetIntent.setData(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id));
                 startActivity(editPetIntent);
             }
         });
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        mPetListView.setLayoutManager(layoutManager);
+        mPetListView.setAdapter(mPetAdapter);
+
+        // Show the empty view in case there is no data to be displayed
+        mPetAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+        updateEmptyView();
+
+        // Load the next page when the user scrolls near the end of the list
+        mPetListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int totalItemCount = mPetAdapter.getItemCount();
+                if(totalItemCount > 0 && layoutManager.findLastVisibleItemPosition()
+                        >= totalItemCount - 1 - PAGE_PREFETCH_DISTANCE){
+                    loadNextPage();
+                }
+            }
+        });
+
+        // The loaders of the later pages outlive a configuration change, but their keys were
+        // lost with the previous activity, so the paging starts again from the first page
+        for(int id = PET_LOADER_ID + 1; getSupportLoaderManager().getLoader(id) != null; id++){
+            getSupportLoaderManager().destroyLoader(id);
+        }
 
-        // Start loading the data
-        getSupportLoaderManager().initLoader(PET_LOADER_ID, null, this);
+        // Fetch the single changed pets with a query handler, and patch them into the pages
+        mQueryHandler = new AsyncQueryHandler(getContentResolver()) {
+            @Override
+            protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
+                if(cursor == null){
+                    return;
+                }
+                try {
+                    List<PetAdapter.PetItem> items = PetAdapter.readItems(new PetCursor(cursor));
+                    patchPage((Long) cookie, items.isEmpty() ? null : items.get(0));
+                } finally {
+                    cursor.close();
+                }
+            }
+        };
+        getContentResolver().registerContentObserver(PetEntry.CONTENT_URI, true, mPetObserver);
+
+        // Start loading the data with the first page
+        loadPage(0, 0);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        getContentResolver().unregisterContentObserver(mPetObserver);
+    }
 
+    /**
+     * This method shows the empty view instead of the pet list view when there are no pets
+     */
+    private void updateEmptyView() {
+        boolean isEmpty = mPetAdapter.getItemCount() == 0;
+        mEmptyView.setVisibility(isEmpty ? View.VISIBLE : View.GONE);
+        mPetListView.setVisibility(isEmpty ? View.GONE : View.VISIBLE);
+    }
+
+    /**
+     * This method starts loading the page after the last loaded one, if the last page is loaded
+     * and there may be more pets after it
+     */
+    private void loadNextPage() {
+
+        int lastPage = mPages.size() - 1;
+        if(mEndReached || mPages.get(lastPage) == null){
+            return;
+        }
 
+        loadPage(lastPage + 1, getLastId(lastPage));
+    }
 
+    /**
+     * This method starts the loader of the given page
+     * @param page is the index of the page
+     * @param afterId is the _ID after which the page starts
+     */
+    private void loadPage(int page, long afterId) {
+
+        if(page == mPages.size()){
+            mPages.add(null);
+            mPageAfterIds.add(afterId);
+        }
+
+        mLoadingPages.put(page, true);
+        getSupportLoaderManager().initLoader(PET_LOADER_ID + page, buildPageArgs(page), this);
+    }
+
+    /**
+     * This method loads all the loaded pages again, e.g. when many pets have changed at once.
+     * Every page keeps its _ID range, so the pages never overlap
+     */
+    private void reloadPages() {
+
+        for(int page = 0; page < mPages.size(); page++){
+            mLoadingPages.put(page, true);
+            getSupportLoaderManager().restartLoader(PET_LOADER_ID + page, buildPageArgs(page),
+                    this);
+        }
+    }
+
+    /**
+     * This method builds the loader arguments of the given page. A page ends where the next
+     * one starts, only the last page has no upper bound
+     * @param page is the index of the page
+     * @return the loader arguments
+     */
+    private Bundle buildPageArgs(int page) {
+
+        Bundle args = new Bundle();
+        args.putLong(LOADER_BUNDLE_AFTER_ID, mPageAfterIds.get(page));
+        args.putLong(LOADER_BUNDLE_UP_TO_ID, page + 1 < mPageAfterIds.size()
+                ? mPageAfterIds.get(page + 1) : PetPageLoader.NO_UPPER_BOUND);
+        return args;
+    }
+
+    /**
+     * This method returns the _ID of the last pet of the given page. An empty page ends where
+     * it starts
+     * @param page is the index of the page
+     * @return the _ID of the last pet of the page
+     */
+    private long getLastId(int page) {
+
+        List<PetAdapter.PetItem> items = mPages.get(page);
+        if(items == null || items.isEmpty()){
+            return mPageAfterIds.get(page);
+        }
+        return items.get(items.size() - 1).getId();
+    }
+
+    /**
+     * This method shows all the loaded pages which follow each other without a gap in the list
+     */
+    private void showPages() {
+
+        ArrayList<PetAdapter.PetItem> items = new ArrayList<>();
+        for(List<PetAdapter.PetItem> page : mPages){
+            if(page == null){
+                break;
+            }
+            items.addAll(page);
+        }
+
+        // The adapter compares the new rows with the shown ones and only updates the differences
+        mPetAdapter.submitItems(items);
+    }
+
+    /**
+     * This method applies the change of a single pet to the loaded pages. A deleted pet is
+     * removed right away, an inserted or updated pet is fetched by its _ID first
+     * @param id is the _ID of the changed pet
+     * @param operation is the type of the change
+     */
+    private void onPetChanged(long id, String operation) {
+
+        if(OPERATION_DELETE.equals(operation)){
+            patchPage(id, null);
+        } else {
+            mQueryHandler.startQuery(0, id, ContentUris.withAppendedId(PetEntry.CONTENT_URI, id),
+                    PetEntry.PROJECTION_LIST, null, null, null);
+        }
+    }
+
+    /**
+     * This method replaces, inserts or removes a single pet in the page which holds its _ID
+     * @param id is the _ID of the pet
+     * @param item is the new row of the pet, or null if the pet is removed
+     */
+    private void patchPage(long id, PetAdapter.PetItem item) {
+
+        int page = findPage(id);
+        if(page < 0){
+            return;
+        }
+
+        // The page is loading, so it may miss this change. Load it again instead of patching it
+        if(mLoadingPages.get(page) || mPages.get(page) == null){
+            mLoadingPages.put(page, true);
+            getSupportLoaderManager().restartLoader(PET_LOADER_ID + page, buildPageArgs(page),
+                    this);
+            return;
+        }
+
+        // The rows are immutable snapshots, so the page is copied before it is changed
+        List<PetAdapter.PetItem> items = new ArrayList<>(mPages.get(page));
+        int position = findPosition(items, id);
+        if(position >= 0){
+            if(item == null){
+                items.remove(position);
+            } else {
+                items.set(position, item);
+            }
+        } else if(item != null){
+            items.add(-position - 1, item);
+        } else {
+            return;
+        }
+
+        mPages.set(page, items);
+        showPages();
+    }
+
+    /**
+     * This method finds the page whose _ID range holds the given _ID
+     * @param id is the _ID of a pet
+     * @return the index of the page, or -1 if the pet is after the loaded pages
+     */
+    private int findPage(long id) {
+
+        for(int page = mPages.size() - 1; page >= 0; page--){
+            if(id > mPageAfterIds.get(page)){
+                // The last page only holds the pets up to its last one, unless it is the end
+                // of the table
+                boolean isLastPage = page == mPages.size() - 1;
+                if(isLastPage && !mEndReached && id > getLastId(page)){
+                    return -1;
+                }
+                return page;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * This method binary searches the rows of a page, which are ordered by _ID
+     * @param items is the rows of the page
+     * @param id is the _ID which is searched
+     * @return the position of the row, or (-(insertion point) - 1) if there is no such row
+     */
+    private static int findPosition(List<PetAdapter.PetItem> items, long id) {
+
+        int low = 0;
+        int high = items.size() - 1;
+        while(low <= high){
+            int middle = (low + high) >>> 1;
+            long middleId = items.get(middle).getId();
+            if(middleId < id){
+                low = middle + 1;
+            } else if(middleId > id){
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
@@ -112,14 +437,211 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
                 //Insert fake data into the database
                 insertPet();
                 return true;
+            // Respond to a click on the "Import pets" menu option
+            case R.id.action_import:
+                // Let the user choose a CSV or JSON file
+                Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                intent.setType("*/*");
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(intent, REQUEST_IMPORT);
+                return true;
+            // Respond to a click on the "Export pets" menu option
+            case R.id.action_export:
+                // Share the export URI, the receiving app reads the pets through the
+                // provider's pipe while they are written
+                Intent shareIntent = new Intent(Intent.ACTION_SEND);
+                shareIntent.setType(MIME_TYPE_CSV);
+                shareIntent.putExtra(Intent.EXTRA_STREAM, PetEntry.buildExportUri(FORMAT_CSV));
+                shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                startActivity(Intent.createChooser(shareIntent,
+                        getString(R.string.export_chooser_title)));
+                return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
-                // Do nothing for now
+                showDeleteAllConfirmationDialog();
                 return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * This method asks the user to confirm deleting all the pets
+     */
+    private void showDeleteAllConfirmationDialog() {
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(R.string.delete_all_dialog_msg);
+        builder.setPositiveButton(R.string.delete, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialogInterface, int i) {
+                // Like an import, deleting all the pets must not hold back the diffs of the
+                // catalog list on the serial executor
+                new ClearTask(getApplicationContext())
+                        .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialogInterface, int i) {
+
+                if(dialogInterface != null){
+                    dialogInterface.dismiss();
+                }
+            }
+        });
+        builder.create().show();
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if(requestCode == REQUEST_IMPORT){
+            if(resultCode == RESULT_OK && data != null && data.getData() != null){
+                // An import can take minutes, so it runs on the thread pool instead of the serial
+                // executor, where it would hold back the diffs of the catalog list
+                new ImportTask(getApplicationContext())
+                        .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, data.getData());
+            }
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
+    /**
+     * Task which imports the pets of a file on a background thread. It only holds the
+     * application context, so it can outlive the activity, and the catalog is updated through
+     * the notifications of the provider
+     */
+    private static class ImportTask extends AsyncTask<Uri, Void, PetImporter.Result> {
+
+        private final Context mContext;
+
+        ImportTask(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        protected PetImporter.Result doInBackground(Uri... uris) {
+            try {
+                InputStream inputStream = mContext.getContentResolver().openInputStream(uris[0]);
+                if(inputStream == null){
+                    return null;
+                }
+                PetImporter importer = new PetImporter(mContext.getContentResolver());
+                return importer.importPets(inputStream, new PetImporter.ProgressListener() {
+                    @Override
+                    public void onProgress(long rowsImported, long rowsRejected,
+                                           long rowsPerSecond) {
+                        Log.i(LOG_TAG, "Imported " + rowsImported + " pets, rejected "
+                                + rowsRejected + " (" + rowsPerSecond + " rows/s)");
+                    }
+                });
+            } catch (IOException | RuntimeException e) {
+                Log.e(LOG_TAG, "Failed to import pets", e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(PetImporter.Result result) {
+            if(result == null){
+                Toast.makeText(mContext, R.string.import_fail, Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(mContext, mContext.getString(R.string.import_success,
+                        result.rowsImported, result.rowsRejected, result.getRowsPerSecond()),
+                        Toast.LENGTH_LONG).show();
+            }
+        }
+    }
+
+    /**
+     * Task which deletes all the pets on a background thread. The provider deletes them one
+     * chunk at a time, or drops the whole table at once, and notifies the catalog once at the
+     * end, so the list is not reloaded for every chunk. The progress is shown in a
+     * notification, which stays when the user leaves the catalog. Like the ImportTask it only
+     * holds the application context
+     */
+    private static class ClearTask extends AsyncTask<Void, Long, Long> {
+
+        private final Context mContext;
+        private final NotificationCompat.Builder mNotification;
+
+        ClearTask(Context context) {
+            mContext = context;
+            mNotification = new NotificationCompat.Builder(context)
+                    .setSmallIcon(android.R.drawable.ic_menu_delete)
+                    .setContentTitle(context.getString(R.string.delete_all_progress_title))
+                    .setOngoing(true)
+                    .setOnlyAlertOnce(true);
+        }
+
+        @Override
+        protected void onPreExecute() {
+            // The number of pets is only known after the first chunk
+            mNotification.setProgress(0, 0, true);
+            NotificationManagerCompat.from(mContext)
+                    .notify(NOTIFICATION_DELETE_ALL, mNotification.build());
+        }
+
+        @Override
+        protected Long doInBackground(Void... voids) {
+
+            Bundle extras = new Bundle();
+            extras.putBoolean(KEY_CLEAR_ALLOW_TRUNCATE, true);
+
+            long rowsDeleted = 0;
+            try {
+                while(true){
+                    Bundle result = mContext.getContentResolver().call(PetEntry.CONTENT_URI,
+                            METHOD_CLEAR_PETS, null, extras);
+                    if(result == null){
+                        notifyPartialClear(rowsDeleted);
+                        return null;
+                    }
+                    long rows = result.getLong(KEY_CLEAR_ROWS_DELETED);
+                    long rowsRemaining = result.getLong(KEY_CLEAR_ROWS_REMAINING);
+                    rowsDeleted += rows;
+                    // The provider notifies the observers after the last chunk
+                    if(rows == 0 || rowsRemaining == 0){
+                        return rowsDeleted;
+                    }
+                    publishProgress(rowsDeleted, rowsDeleted + rowsRemaining);
+                }
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "Failed to delete all the pets after " + rowsDeleted, e);
+                notifyPartialClear(rowsDeleted);
+                return null;
+            }
+        }
+
+        // The chunks which were committed before a failure are never announced by the
+        // provider, so the catalog is told to reload them here
+        private void notifyPartialClear(long rowsDeleted) {
+            if(rowsDeleted > 0){
+                mContext.getContentResolver().notifyChange(PetEntry.CONTENT_URI, null);
+            }
+        }
+
+        @Override
+        protected void onProgressUpdate(Long... progress) {
+            mNotification.setProgress(progress[1].intValue(), progress[0].intValue(), false)
+                    .setContentText(mContext.getString(R.string.delete_all_progress,
+                            progress[0], progress[1]));
+            NotificationManagerCompat.from(mContext)
+                    .notify(NOTIFICATION_DELETE_ALL, mNotification.build());
+        }
+
+        @Override
+        protected void onPostExecute(Long rowsDeleted) {
+            NotificationManagerCompat.from(mContext).cancel(NOTIFICATION_DELETE_ALL);
+            if(rowsDeleted == null){
+                Toast.makeText(mContext, R.string.delete_all_fail, Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(mContext, mContext.getString(R.string.delete_all_success,
+                        rowsDeleted), Toast.LENGTH_SHORT).show();
+            }
+        }
+    }
+
     /**
      * This method currently insert fake data into the database
      */
@@ -136,55 +658,73 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         cv.put(PetEntry.COLUMN_WEIGHT, 7);
 
 
-        // Insert the data using the content resolver which redirects the query to the
-        // PetProvider and then inserts the dummy data into the database and then return a
-        // not null URI instance to ensure that the insert method has executed successfully.
-        Uri uri = getContentResolver().insert(PetEntry.CONTENT_URI, cv);
-
-        // If the uri is null then there was something wrong with the insertion action
-        // Otherwise, print a toast message indicating that the action was successful
-        if(uri == null){
-            Toast.makeText(CatalogActivity.this, R.string.dummy_insertion_fail, Toast.LENGTH_SHORT)
-                    .show();
-        } else {
-            Toast.makeText(CatalogActivity.this, R.string.dummy_insertion_success, Toast.LENGTH_SHORT)
-                    .show();
-        }
+        // Queue the insert on the pet writer, which commits it together with the other writes
+        // which arrive at the same time and then calls back on its own thread
+        ContentProviderOperation operation = ContentProviderOperation
+                .newInsert(PetEntry.CONTENT_URI)
+                .withValues(cv)
+                .build();
+        PetWriter.getInstance(this).submit(operation, new PetWriter.Callback() {
+            @Override
+            public void onWriteComplete(ContentProviderResult result, Exception error) {
+
+                // If there is an error then there was something wrong with the insertion action
+                // Otherwise, print a toast message indicating that the action was successful
+                final int message = error == null
+                        ? R.string.dummy_insertion_success : R.string.dummy_insertion_fail;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(CatalogActivity.this, message, Toast.LENGTH_SHORT).show();
+                    }
+                });
+            }
+        });
     }
 
 
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+    public Loader<List<PetAdapter.PetItem>> onCreateLoader(int id, Bundle args) {
 
-        switch (id){
+        // Every page of the catalog has its own loader
+        int page = id - PET_LOADER_ID;
+        if(page < 0 || args == null){
+            throw new IllegalArgumentException("Unknown loader id " + id);
+        }
 
-            case PET_LOADER_ID:
+        return new PetPageLoader(this,
+                args.getLong(LOADER_BUNDLE_AFTER_ID),
+                args.getLong(LOADER_BUNDLE_UP_TO_ID),
+                PAGE_SIZE);
+    }
 
-                String[] projection = {
-                        PetEntry._ID,
-                        PetEntry.COLUMN_NAME,
-                        PetEntry.COLUMN_BREED
-                };
+    @Override
+    public void onLoadFinished(Loader<List<PetAdapter.PetItem>> loader,
+                               List<PetAdapter.PetItem> data) {
 
-                return new CursorLoader(this,
-                        PetEntry.CONTENT_URI,
-                        projection,
-                        null,
-                        null,
-                        null);
+        // Ignore the pages which are not part of the catalog anymore
+        int page = loader.getId() - PET_LOADER_ID;
+        if(page >= mPages.size()){
+            return;
+        }
+        mPages.set(page, data);
+        mLoadingPages.delete(page);
 
-            default:
-                throw new IllegalArgumentException("Unknown loader id " + id);
+        // If the last page is not full then there are no more pets after it
+        if(page == mPages.size() - 1 && data != null){
+            mEndReached = data.size() < PAGE_SIZE;
         }
-    }
 
-    @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        mPetAdapter.swapCursor(data);
+        showPages();
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        mPetAdapter.swapCursor(null);
+    public void onLoaderReset(Loader<List<PetAdapter.PetItem>> loader) {
+        int page = loader.getId() - PET_LOADER_ID;
+        if(page >= mPages.size()){
+            return;
+        }
+        mPages.set(page, null);
+        showPages();
     }
 }
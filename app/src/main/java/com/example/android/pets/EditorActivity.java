@@ -15,6 +15,7 @@
  */
 package com.example.android.pets;
 
+import android.content.AsyncQueryHandler;
 import android.content.ContentValues;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -42,7 +43,9 @@ import android.widget.Spinner;
 import android.widget.Toast;
 
 import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetCursor;
 import com.example.android.pets.data.PetDbHelper;
+import com.example.android.pets.data.PetValidator;
 
 import static com.example.android.pets.data.PetContract.*;
 
@@ -90,6 +93,23 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
      */
     private int mGender = 0;
 
+    // Tokens of the asynchronous writes
+    private static final int TOKEN_INSERT = 1;
+    private static final int TOKEN_UPDATE = 2;
+    private static final int TOKEN_DELETE = 3;
+
+    // Handler which writes the pet on a background thread
+    private AsyncQueryHandler mWriteHandler;
+
+    // Whether an insert or update of the pet is running
+    private boolean mWriteInProgress = false;
+
+    // The newest data of the pet which was saved while a write was running, or null
+    private ContentValues mPendingValues;
+
+    // Whether the fields have been filled with the loaded pet
+    private boolean mPetLoaded = false;
+
     private View.OnTouchListener mTouchListener = new View.OnTouchListener() {
         @Override
         public boolean onTouch(View view, MotionEvent motionEvent) {
@@ -136,6 +156,81 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mWeightEditText.setOnTouchListener(mTouchListener);
 
         setupSpinner();
+
+        // The handler which writes the pet on a background thread and reports the results back
+        // to this activity
+        mWriteHandler = new AsyncQueryHandler(getContentResolver()) {
+            @Override
+            protected void onInsertComplete(int token, Object cookie, Uri uri) {
+
+                // If the uri is null then there was something wrong with the insertion action.
+                // The failure is toasted even if a newer save follows, so it is never hidden
+                if(uri == null){
+                    Toast.makeText(EditorActivity.this, R.string.pet_insertion_fail,
+                            Toast.LENGTH_SHORT).show();
+                } else {
+                    // If the pet was inserted then the next writes update it
+                    mUri = uri;
+                }
+                if(writePendingValues(uri != null)){
+                    return;
+                }
+
+                // Otherwise, print a toast message indicating that the action was successful
+                if(uri != null){
+                    Toast.makeText(EditorActivity.this, R.string.pet_insertion_success,
+                            Toast.LENGTH_SHORT).show();
+                    // Return to the CatalogActivity
+                    finish();
+                }
+            }
+
+            @Override
+            protected void onUpdateComplete(int token, Object cookie, int rowsUpdated) {
+
+                // The cookie tells whether this update saves a pet which the user is adding,
+                // i.e. one which was inserted by the write before it
+                boolean petAdded = (Boolean) cookie;
+
+                // If no pet has been updated then that is some malfunction. The app then
+                // toasts a message to the user that something has failed, even if a newer
+                // save follows
+                if(rowsUpdated <= 0){
+                    Toast.makeText(EditorActivity.this, R.string.pet_update_fail,
+                            Toast.LENGTH_SHORT).show();
+                }
+                if(writePendingValues(petAdded)){
+                    return;
+                }
+
+                // Otherwise, the save is successful and the user gets a toast message about
+                // the save which they asked for
+                if(rowsUpdated > 0){
+                    Toast.makeText(EditorActivity.this, petAdded
+                            ? R.string.pet_insertion_success : R.string.pet_update_success,
+                            Toast.LENGTH_SHORT).show();
+                    // Return to the CatalogActivity
+                    finish();
+                }
+            }
+
+            @Override
+            protected void onDeleteComplete(int token, Object cookie, int rowsDeleted) {
+
+                // If the number of animals deleted are greater than 0 then toast a message
+                // saying that the deletion was successful
+                if(rowsDeleted > 0){
+                    Toast.makeText(EditorActivity.this, R.string.deletion_successful,
+                            Toast.LENGTH_SHORT).show();
+                    // Return to CatalogActivity
+                    finish();
+                } else {
+                    // Otherwise, toast a message that the deletion failed
+                    Toast.makeText(EditorActivity.this, R.string.deletion_fail,
+                            Toast.LENGTH_SHORT).show();
+                }
+            }
+        };
     }
 
     @Override
@@ -289,50 +384,81 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         cv.put(PetEntry.COLUMN_GENDER, mGender);
         cv.put(PetEntry.COLUMN_WEIGHT, weight);
 
+        // Check the data before it is written, and tell the user what is wrong with it
+        int errors = PetValidator.validate(cv, true);
+        if(errors != PetValidator.VALID){
+            Toast.makeText(EditorActivity.this, getValidationMessage(errors), Toast.LENGTH_SHORT)
+                    .show();
+            return;
+        }
 
-        // Check if the data should be inserted or updated
-        // The data should be inserted if mUri is null, since the URI is null that means that
-        // This is Add a Pet mode
-        // Otherwise, update the pet because it is Edit Pet mode
-        if(mUri == null){
+        // Write the pet on the background thread of the write handler
+        writePet(cv, false);
+    }
 
-            // Insert the data using the content resolver which redirects the query to the
-            // PetProvider and then inserts the data into the database and then return a
-            // not null URI instance to ensure that the insert method has executed successfully.
-
-            Uri uri = getContentResolver().insert(PetEntry.CONTENT_URI, cv);
-
-            // If the uri is null then there was something wrong with the insertion action
-            // Otherwise, print a toast message indicating that the action was successful
-            if(uri == null){
-                Toast.makeText(EditorActivity.this, R.string.pet_insertion_fail, Toast.LENGTH_SHORT)
-                        .show();
-            } else {
-                Toast.makeText(EditorActivity.this, R.string.pet_insertion_success, Toast.LENGTH_SHORT)
-                        .show();
-                // Return to the CatalogActivity
-                finish();
-            }
+    /**
+     * This method starts writing the pet on a background thread. The data should be inserted
+     * if mUri is null, since the URI is null that means that This is Add a Pet mode.
+     * Otherwise, update the pet because it is Edit Pet mode.
+     *
+     * If a write of this pet is still running, the data is kept and written when it finishes.
+     * Repeated saves in the meantime only keep the newest data, so they cost one more write
+     * at most
+     * @param cv is the data of the pet
+     * @param petAdded is true if the pet was inserted by the write before this one, so an
+     * update is reported to the user as the insert which they asked for
+     */
+    private void writePet(ContentValues cv, boolean petAdded) {
+
+        if(mWriteInProgress){
+            mPendingValues = cv;
+            return;
+        }
+
+        mWriteInProgress = true;
+        if(mUri == null){
+            mWriteHandler.startInsert(TOKEN_INSERT, null, PetEntry.CONTENT_URI, cv);
         } else {
+            mWriteHandler.startUpdate(TOKEN_UPDATE, petAdded, mUri, cv, null, null);
+        }
+    }
 
-            // Update the pet and see how many rows will be updated (normally one row should be
-            // updated, if more than one rows or none are updated then there is something wrong)
-            int rowsUpdated = getContentResolver().update(mUri, cv, null, null);
-
-            // If rowsUpdate is 0, that means that no pet has been updated and that is some
-            // malfunction. The app then toasts a message to the user that something has failed
-            if(rowsUpdated == 0){
-                Toast.makeText(EditorActivity.this, R.string.pet_update_fail, Toast.LENGTH_SHORT)
-                        .show();
-            } else {
-
-                // Otherwise, the pet update is successful and the user gets a toast message that
-                // the pet update was successful
-                Toast.makeText(EditorActivity.this, R.string.pet_update_success, Toast.LENGTH_SHORT)
-                        .show();
-                // Return to the CatalogActivity
-                finish();
-            }
+    /**
+     * This method finishes a write of the pet. If the user saved the pet again in the meantime,
+     * the newest data is written now
+     * @param petAdded is true if the finished write inserted the pet, or updated a pet which
+     * was inserted in the same way
+     * @return true if there was newer data to write
+     */
+    private boolean writePendingValues(boolean petAdded) {
+
+        mWriteInProgress = false;
+        if(mPendingValues == null){
+            return false;
+        }
+
+        ContentValues cv = mPendingValues;
+        mPendingValues = null;
+        writePet(cv, petAdded);
+        return true;
+    }
+
+    /**
+     * This method returns the message which tells the user about the first error of the pet
+     * @param errors is the result of PetValidator.validate()
+     * @return the message to show
+     */
+    private String getValidationMessage(int errors) {
+
+        if((errors & PetValidator.ERROR_NAME) != 0){
+            return getString(R.string.no_name);
+        } else if((errors & PetValidator.ERROR_BREED) != 0){
+            return getString(R.string.no_breed);
+        } else if((errors & PetValidator.ERROR_GENDER) != 0){
+            return getString(R.string.invalid_gender);
+        } else {
+            return getString(R.string.invalid_weight_range,
+                    PetValidator.MIN_WEIGHT, PetValidator.MAX_WEIGHT);
         }
     }
 
@@ -348,7 +474,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 // the pet which is requested
                 return new CursorLoader(this,
                         mUri,
-                        null,
+                        PetEntry.PROJECTION_ALL,
                         null,
                         null,
                         null);
@@ -361,15 +487,25 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
 
+        // The loader reloads the pet after every save of this editor. The fields are only
+        // filled the first time, so a reload never overwrites what the user typed since, or a
+        // newer save which is still waiting to be written
+        if(mPetLoaded){
+            return;
+        }
+
         // See if the CursorLoader returned a valid Cursor
         if(data != null && data.getCount() != 0){
-
-            // If so, set the data from the Cursor to the edit text fields on the activity
-            data.moveToPosition(0);
-            mBreedEditText.setText(data.getString(data.getColumnIndex(PetEntry.COLUMN_BREED)));
-            mNameEditText.setText(data.getString(data.getColumnIndex(PetEntry.COLUMN_NAME)));
-            mWeightEditText.setText(data.getString(data.getColumnIndex(PetEntry.COLUMN_WEIGHT)));
-            mGenderSpinner.setSelection(data.getInt(data.getColumnIndex(PetEntry.COLUMN_GENDER)));
+            mPetLoaded = true;
+
+            // If so, set the data from the Cursor to the edit text fields on the activity. The
+            // wrapper is not closed, the loader closes the cursor
+            PetCursor pet = new PetCursor(data);
+            pet.moveToPosition(0);
+            mBreedEditText.setText(pet.getBreed());
+            mNameEditText.setText(pet.getName());
+            mWeightEditText.setText(String.valueOf(pet.getWeight()));
+            mGenderSpinner.setSelection(pet.getGender());
         }
     }
 
@@ -466,19 +602,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
      */
     private void deletePet() {
 
-        // See how many rows where deleted in the database. Normally the number should be one since
-        // we are deleting only one animal
-        int rowsDeleted = getContentResolver().delete(mUri, null, null);
-
-        // If the number of animals deleted are greater than 0 then toast a message saying
-        // that the deletion was successful
-        if(rowsDeleted > 0){
-            Toast.makeText(this, R.string.deletion_successful, Toast.LENGTH_SHORT).show();
-            // Return to CatalogActivity
-            finish();
-        } else {
-            // Otherwise, toast a message that the deletion failed
-            Toast.makeText(this, R.string.deletion_fail, Toast.LENGTH_SHORT).show();
-        }
+        // Delete the pet on the background thread of the write handler, the result is reported
+        // to onDeleteComplete()
+        mWriteHandler.startDelete(TOKEN_DELETE, null, mUri, null, null);
     }
 }
\ No newline at end of file
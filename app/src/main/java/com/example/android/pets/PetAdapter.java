@@ -1,49 +1,224 @@
 package com.example.android.pets;
 
-import android.content.Context;
-import android.database.Cursor;
+import android.os.AsyncTask;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
 import android.widget.TextView;
 
-import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetCursor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Created by terz99 on 4/13/17.
  */
 
-public class PetAdapter extends CursorAdapter{
+public class PetAdapter extends RecyclerView.Adapter<PetAdapter.PetViewHolder>{
+
+    /**
+     * Listener which is called when the user clicks on a pet in the list
+     */
+    public interface OnPetClickListener {
+        void onPetClick(long id);
+    }
+
+    /**
+     * One row of the list. The rows are immutable, so a list of them can be compared with the
+     * next one on a background thread
+     */
+    public static class PetItem {
+
+        final long mId;
+        final String mName;
+        final String mBreed;
+
+        public PetItem(long id, String name, String breed) {
+            mId = id;
+            mName = name;
+            mBreed = breed;
+        }
+
+        public long getId() {
+            return mId;
+        }
+
+        // Returns true if the row shows the same content as the given row
+        boolean hasSameContent(PetItem other) {
+            return TextUtils.equals(mName, other.mName) && TextUtils.equals(mBreed, other.mBreed);
+        }
+    }
+
+    // The rows which are currently shown
+    private List<PetItem> mItems = Collections.emptyList();
+
+    // Incremented every time new rows are submitted, so an older diff which finishes late is
+    // dropped
+    private int mGeneration;
+
+    // Listener of the clicks on the pets
+    private final OnPetClickListener mOnPetClickListener;
 
     /**
      * Public constructor to create an instance of the PetAdapter
-     * @param context is the context where the adapter is created from
-     * @param cursor is a Cursor object containing all the received datat from the database
+     * @param onPetClickListener is the listener which is called when a pet is clicked
      */
-    public PetAdapter(Context context, Cursor cursor) {
-        super(context, cursor, 0);
+    public PetAdapter(OnPetClickListener onPetClickListener) {
+        mOnPetClickListener = onPetClickListener;
+        // Every row has the _ID of its pet, so the list can keep track of the rows by their id
+        setHasStableIds(true);
     }
 
-    // Overridden method to create and infalte a new item in the list view
-    @Override
-    public View newView(Context context, Cursor cursor, ViewGroup viewGroup) {
-        return LayoutInflater.from(context).inflate(R.layout.pet_list_item, viewGroup, false);
+    /**
+     * This method reads the rows of the list out of a cursor
+     * @param cursor is a PetCursor containing the _ID, name and breed of the pets
+     * @return the rows of the cursor
+     */
+    public static List<PetItem> readItems(PetCursor cursor) {
+
+        List<PetItem> items = new ArrayList<>(cursor.getCount());
+
+        cursor.moveToPosition(-1);
+        while(cursor.moveToNext()){
+            items.add(new PetItem(cursor.getId(), cursor.getName(), cursor.getBreed()));
+        }
+
+        return items;
+    }
+
+    /**
+     * This method replaces the rows of the list. The old and the new rows are compared by _ID
+     * and content on a background thread, and only the inserted, removed and changed rows are
+     * dispatched to the list
+     * @param items is the new list of rows, which must not be modified afterwards
+     */
+    public void submitItems(final List<PetItem> items) {
+
+        final int generation = ++mGeneration;
+        final List<PetItem> oldItems = mItems;
+
+        // There is nothing to compare if one of the lists is empty
+        if(oldItems.isEmpty() || items.isEmpty()){
+            mItems = items;
+            notifyDataSetChanged();
+            return;
+        }
+
+        new AsyncTask<Void, Void, DiffUtil.DiffResult>() {
+            @Override
+            protected DiffUtil.DiffResult doInBackground(Void... voids) {
+                // The rows are ordered by _ID, so no row can move
+                return DiffUtil.calculateDiff(new PetDiffCallback(oldItems, items), false);
+            }
+
+            @Override
+            protected void onPostExecute(DiffUtil.DiffResult diffResult) {
+                // Drop the result if newer rows were submitted in the meantime
+                if(generation != mGeneration){
+                    return;
+                }
+                mItems = items;
+                diffResult.dispatchUpdatesTo(PetAdapter.this);
+            }
+        }.execute();
     }
 
+    // Overridden method to create and inflate a new item in the list
+    @Override
+    public PetViewHolder onCreateViewHolder(ViewGroup viewGroup, int viewType) {
+        View view = LayoutInflater.from(viewGroup.getContext())
+                .inflate(R.layout.pet_list_item, viewGroup, false);
+        return new PetViewHolder(view);
+    }
 
     // Overriden method that sets new data to a recycled pet_list_item view
     @Override
-    public void bindView(View view, Context context, Cursor cursor) {
+    public void onBindViewHolder(PetViewHolder holder, int position) {
+
+        PetItem item = mItems.get(position);
+
+        // Set the appropriate id, name and breed to this item view
+        holder.mId = item.mId;
+        holder.mNameTextView.setText(item.mName);
+        holder.mBreedTextView.setText(item.mBreed);
+    }
+
+    @Override
+    public int getItemCount() {
+        return mItems.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mItems.get(position).mId;
+    }
+
+    /**
+     * This callback compares two lists of rows, a row is the same item if it has the same _ID
+     */
+    private static class PetDiffCallback extends DiffUtil.Callback {
+
+        private final List<PetItem> mOldItems;
+        private final List<PetItem> mNewItems;
+
+        PetDiffCallback(List<PetItem> oldItems, List<PetItem> newItems) {
+            mOldItems = oldItems;
+            mNewItems = newItems;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldItems.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewItems.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldItems.get(oldItemPosition).mId == mNewItems.get(newItemPosition).mId;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldItems.get(oldItemPosition).hasSameContent(mNewItems.get(newItemPosition));
+        }
+    }
+
+    /**
+     * This view holder keeps the views of a pet_list_item, so they are looked up only once
+     */
+    class PetViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        // The text views of the item view
+        final TextView mNameTextView;
+        final TextView mBreedTextView;
+
+        // The id of the pet which is shown in this item view
+        long mId;
+
+        PetViewHolder(View itemView) {
+            super(itemView);
+
+            // Get link from the item view text views
+            mNameTextView = (TextView) itemView.findViewById(R.id.name_text_view);
+            mBreedTextView = (TextView) itemView.findViewById(R.id.breed_text_view);
 
-        // Get link from the item view text views
-        TextView nameTextView = (TextView) view.findViewById(R.id.name_text_view);
-        TextView breedTextView = (TextView) view.findViewById(R.id.breed_text_view);
+            itemView.setOnClickListener(this);
+        }
 
-        // Set the appropriate name and breed to this item view
-        nameTextView.setText(cursor.getString(
-                cursor.getColumnIndex(PetContract.PetEntry.COLUMN_NAME)));
-        breedTextView.setText(cursor.getString(
-                cursor.getColumnIndex(PetContract.PetEntry.COLUMN_BREED)));
+        @Override
+        public void onClick(View view) {
+            if(mOnPetClickListener != null){
+                mOnPetClickListener.onPetClick(mId);
+            }
+        }
     }
 }
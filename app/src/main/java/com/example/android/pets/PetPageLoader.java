@@ -0,0 +1,100 @@
+package com.example.android.pets;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.v4.content.AsyncTaskLoader;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetCursor;
+
+import java.util.List;
+
+/**
+ * This loader loads one page of the catalog, i.e. the pets with _ID in (afterId, upToId], at
+ * most limit of them. Unlike a CursorLoader it does not watch the pets table: the catalog
+ * patches single rows itself and reloads the pages only when the whole table has changed
+ */
+public class PetPageLoader extends AsyncTaskLoader<List<PetAdapter.PetItem>> {
+
+    // Value of upToId for the last page, which has no upper bound
+    public static final long NO_UPPER_BOUND = -1;
+
+    // Bounds and size of the page
+    private final long mAfterId;
+    private final long mUpToId;
+    private final int mLimit;
+
+    // The rows which were loaded last
+    private List<PetAdapter.PetItem> mItems;
+
+    /**
+     * Public constructor to create a loader of a page
+     * @param context is the context where the loader is created from
+     * @param afterId is the _ID after which the page starts
+     * @param upToId is the _ID of the last pet which may be in the page, or NO_UPPER_BOUND
+     * @param limit is the maximum number of pets in the page
+     */
+    public PetPageLoader(Context context, long afterId, long upToId, int limit) {
+        super(context);
+        mAfterId = afterId;
+        mUpToId = upToId;
+        mLimit = limit;
+    }
+
+    // Overridden method which queries the page and reads its rows on a background thread
+    @Override
+    public List<PetAdapter.PetItem> loadInBackground() {
+
+        String selection = null;
+        String[] selectionArgs = null;
+        if(mUpToId != NO_UPPER_BOUND){
+            selection = PetEntry._ID + "<=?";
+            selectionArgs = new String[]{ String.valueOf(mUpToId) };
+        }
+
+        Cursor cursor = getContext().getContentResolver().query(
+                PetEntry.buildPageUri(mAfterId, mLimit),
+                PetEntry.PROJECTION_LIST,
+                selection,
+                selectionArgs,
+                null);
+        if(cursor == null){
+            return null;
+        }
+
+        try {
+            return PetAdapter.readItems(new PetCursor(cursor));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void deliverResult(List<PetAdapter.PetItem> items) {
+        mItems = items;
+        if(isStarted()){
+            super.deliverResult(items);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if(mItems != null){
+            deliverResult(mItems);
+        }
+        if(takeContentChanged() || mItems == null){
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        onStopLoading();
+        mItems = null;
+    }
+}
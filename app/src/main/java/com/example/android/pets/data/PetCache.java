@@ -0,0 +1,181 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+import static com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * This class is a bounded LRU cache of whole pet rows, keyed by _ID. The PetProvider serves
+ * the single pet queries from it instead of going to SQLite.
+ *
+ * A read may race with a write to the same pet, so every change increments a generation
+ * counter and the rows which were read before the change are not put into the cache.
+ */
+class PetCache {
+
+    // The columns of a cached row, in order
+    static final String[] COLUMNS = PetEntry.PROJECTION_ALL;
+
+    // The cached rows, every row holds the values of COLUMNS
+    private final LruCache<Long, Object[]> mRows;
+
+    // Incremented on every change of the pets table
+    private long mGeneration;
+
+    /**
+     * Package-private constructor to create a cache
+     * @param maxRows is the maximum number of rows which are kept in the cache
+     */
+    PetCache(int maxRows) {
+        mRows = new LruCache<>(maxRows);
+    }
+
+    /**
+     * This method returns the generation which has to be passed to the put methods for the
+     * rows which are read after this call
+     * @return the current generation
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * This method returns a cursor with the cached row of the given pet
+     * @param id is the _ID of the pet
+     * @param projection is the list of columns to return, or null for all columns
+     * @return a cursor with one row, or null if the pet is not cached or the projection has a
+     * column which is not cached
+     */
+    Cursor query(long id, String[] projection) {
+
+        // Map the requested columns to the columns of the cached row
+        String[] columns = projection == null ? COLUMNS : projection;
+        int[] indices = new int[columns.length];
+        for(int i = 0; i < columns.length; i++){
+            indices[i] = indexOf(columns[i]);
+            if(indices[i] < 0){
+                return null;
+            }
+        }
+
+        Object[] row = mRows.get(id);
+        if(row == null){
+            return null;
+        }
+
+        Object[] values = new Object[columns.length];
+        for(int i = 0; i < columns.length; i++){
+            values[i] = row[indices[i]];
+        }
+
+        MatrixCursor cursor = new MatrixCursor(columns, 1);
+        cursor.addRow(values);
+        return cursor;
+    }
+
+    /**
+     * This method puts the rows of a cursor into the cache, if the cursor has all the cached
+     * columns. At most as many rows as fit into the cache are read, and the cursor is moved
+     * back before its first row
+     * @param cursor is a cursor of the pets table
+     * @param generation is the generation from before the cursor was queried
+     */
+    void putRows(Cursor cursor, long generation) {
+
+        int[] indices = new int[COLUMNS.length];
+        for(int i = 0; i < COLUMNS.length; i++){
+            indices[i] = cursor.getColumnIndex(COLUMNS[i]);
+            if(indices[i] < 0){
+                return;
+            }
+        }
+
+        int maxRows = mRows.maxSize();
+        for(int rows = 0; rows < maxRows && cursor.moveToNext(); rows++){
+            put(new Object[]{
+                    cursor.getLong(indices[0]),
+                    cursor.getString(indices[1]),
+                    cursor.getString(indices[2]),
+                    cursor.getLong(indices[3]),
+                    cursor.getLong(indices[4])
+            }, generation);
+        }
+        cursor.moveToPosition(-1);
+    }
+
+    /**
+     * This method puts a newly inserted pet into the cache
+     * @param id is the _ID of the new pet
+     * @param name is the name of the pet
+     * @param breed is the breed of the pet
+     * @param gender is the gender of the pet
+     * @param weight is the weight of the pet
+     * @param generation is the generation from before the pet was inserted
+     */
+    void putRow(long id, String name, String breed, Long gender, Long weight, long generation) {
+
+        // A value which is missing or not a number cannot be served like SQLite would, so such
+        // a pet is left for the database
+        if(name == null || breed == null || gender == null || weight == null){
+            return;
+        }
+        put(new Object[]{ id, name, breed, gender, weight }, generation);
+    }
+
+    // Puts a row into the cache, unless the pets table has changed since it was read
+    private synchronized void put(Object[] row, long generation) {
+        if(generation == mGeneration){
+            mRows.put((Long) row[0], row);
+        }
+    }
+
+    /**
+     * This method removes a changed or deleted pet from the cache
+     * @param id is the _ID of the pet
+     */
+    synchronized void invalidate(long id) {
+        mGeneration++;
+        mRows.remove(id);
+    }
+
+    /**
+     * This method removes all the pets from the cache, e.g. when an unknown set of pets has
+     * changed
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mRows.evictAll();
+    }
+
+    // Number of queries which were served from the cache
+    int getHitCount() {
+        return mRows.hitCount();
+    }
+
+    // Number of queries which were not served from the cache
+    int getMissCount() {
+        return mRows.missCount();
+    }
+
+    // Number of cached rows
+    int getSize() {
+        return mRows.size();
+    }
+
+    // Maximum number of cached rows
+    int getMaxSize() {
+        return mRows.maxSize();
+    }
+
+    // Returns the index of a column in the cached rows, or -1 if it is not cached
+    private static int indexOf(String column) {
+        for(int i = 0; i < COLUMNS.length; i++){
+            if(COLUMNS[i].equals(column)){
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,281 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import static com.example.android.pets.data.PetContract.*;
+
+/**
+ * This class purges the pets which the PetProvider has marked as deleted, and gives the free
+ * pages of the database file back to the file system. It runs on a background thread once the
+ * pets table has not been written for IDLE_DELAY_MS after a delete. Every batch of purged pets
+ * is its own transaction, so the other writers are only blocked for one batch, and a write
+ * which arrives while the compaction is running stops it until the table is idle again.
+ *
+ * The free pages are given back with PRAGMA incremental_vacuum. A database which was created
+ * before auto_vacuum was turned on needs a VACUUM first, which rewrites the whole file in one
+ * write transaction, so only a forced compaction (METHOD_COMPACT) runs it. Until then the
+ * background compaction only purges, and SQLite reuses the free pages for new pets.
+ */
+class PetCompactor {
+
+    // Log tag
+    private static final String LOG_TAG = PetCompactor.class.getSimpleName();
+
+    // How long the pets table has to be left alone before the compaction starts
+    private static final long IDLE_DELAY_MS = 30 * 1000;
+
+    // Number of deleted pets which are purged in one transaction
+    private static final int PURGE_BATCH_SIZE = 500;
+
+    // Number of free pages which are given back with one incremental vacuum
+    private static final int VACUUM_BATCH_PAGES = 256;
+
+    // Value of PRAGMA auto_vacuum in the incremental mode
+    private static final long AUTO_VACUUM_INCREMENTAL = 2;
+
+    // SQL command to purge a batch of deleted pets. The selection is the one of the tombstone
+    // index, so the deleted pets are found without a scan
+    private static final String SQL_PURGE = "DELETE FROM " + PetEntry.TABLE_NAME + " WHERE "
+            + PetEntry._ID + " IN (SELECT " + PetEntry._ID + " FROM " + PetEntry.TABLE_NAME
+            + " WHERE " + PetEntry.COLUMN_DELETED + " != 0 LIMIT " + PURGE_BATCH_SIZE + ")";
+
+    // Database helper of the provider
+    private final PetDbHelper mDbHelper;
+
+    // Handler of the compaction thread, which is started with the first delete
+    private Handler mHandler;
+
+    // True while a compaction is waiting for the table to become idle
+    private boolean mScheduled;
+
+    // Time of the last write of the provider, in SystemClock.uptimeMillis()
+    private volatile long mLastWriteTime;
+
+    // Lock which lets only one compaction run at a time
+    private final Object mCompactionLock = new Object();
+
+    // Totals of all the compactions
+    private int mRuns;
+    private long mRowsPurged;
+    private long mPagesReclaimed;
+    private long mBytesReclaimed;
+    private long mLastRunMillis;
+
+    // The scheduled compaction
+    private final Runnable mCompaction = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (PetCompactor.this) {
+                mScheduled = false;
+            }
+            compact(false);
+        }
+    };
+
+    /**
+     * Package-private constructor to create the compactor of a provider
+     * @param dbHelper is the database helper of the provider
+     */
+    PetCompactor(PetDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * This method is called after every write of the provider. A delete schedules a compaction,
+     * any write postpones the scheduled compaction until the table is idle again
+     * @param hasDeleted is true if the write marked pets as deleted
+     */
+    synchronized void onWrite(boolean hasDeleted) {
+
+        mLastWriteTime = SystemClock.uptimeMillis();
+        if(hasDeleted || mScheduled){
+            schedule();
+        }
+    }
+
+    // Schedules the compaction IDLE_DELAY_MS from now, in place of a scheduled one
+    private synchronized void schedule() {
+        if(mHandler == null){
+            HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            mHandler = new Handler(thread.getLooper());
+        }
+        mHandler.removeCallbacks(mCompaction);
+        mHandler.postDelayed(mCompaction, IDLE_DELAY_MS);
+        mScheduled = true;
+    }
+
+    /**
+     * This method stops the compaction thread
+     */
+    synchronized void shutdown() {
+        if(mHandler != null){
+            mHandler.removeCallbacks(mCompaction);
+            mHandler.getLooper().quit();
+            mHandler = null;
+        }
+        mScheduled = false;
+    }
+
+    /**
+     * This method purges the deleted pets and gives the free pages back to the file system
+     * @param force is true to run until the end, false to stop as soon as the provider writes
+     * @return the totals of all the compactions, like toBundle()
+     */
+    Bundle compact(boolean force) {
+
+        synchronized (mCompactionLock) {
+
+            long start = SystemClock.uptimeMillis();
+            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            long pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+            long pagesBefore = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+
+            long rowsPurged = 0;
+            boolean isComplete = true;
+            SQLiteStatement purge = db.compileStatement(SQL_PURGE);
+            try {
+                while(true){
+                    if(!force && isInterrupted(start)){
+                        isComplete = false;
+                        break;
+                    }
+
+                    int rows;
+                    db.beginTransactionNonExclusive();
+                    try {
+                        rows = purge.executeUpdateDelete();
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
+                    }
+                    rowsPurged += rows;
+
+                    if(rows < PURGE_BATCH_SIZE){
+                        break;
+                    }
+                }
+            } finally {
+                purge.close();
+            }
+
+            if(isComplete){
+                isComplete = vacuum(db, start, force);
+            }
+
+            long pagesReclaimed = Math.max(0,
+                    pagesBefore - DatabaseUtils.longForQuery(db, "PRAGMA page_count", null));
+            long millis = SystemClock.uptimeMillis() - start;
+            Log.i(LOG_TAG, "Purged " + rowsPurged + " pets and reclaimed " + pagesReclaimed
+                    + " pages in " + millis + " ms" + (isComplete ? "" : ", interrupted"));
+
+            synchronized (this) {
+                mRuns++;
+                mRowsPurged += rowsPurged;
+                mPagesReclaimed += pagesReclaimed;
+                mBytesReclaimed += pagesReclaimed * pageSize;
+                mLastRunMillis = millis;
+            }
+
+            // Finish the work when the table is idle again
+            if(!isComplete){
+                schedule();
+            }
+
+            return toBundle();
+        }
+    }
+
+    /**
+     * This method gives the free pages of the database back to the file system, in batches of
+     * VACUUM_BATCH_PAGES
+     * @param db is the writable database
+     * @param start is the time the compaction started
+     * @param force is true to run until the end, false to stop as soon as the provider writes
+     * @return true if there are no free pages left, false if the vacuum was interrupted
+     */
+    private boolean vacuum(SQLiteDatabase db, long start, boolean force) {
+
+        long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        if(freePages == 0){
+            return true;
+        }
+
+        // The incremental vacuum needs the auto_vacuum mode, which can only be turned on for an
+        // existing database by a VACUUM. It rewrites the whole file and cannot be interrupted,
+        // so the background compaction leaves it to a forced one
+        if(DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null)
+                != AUTO_VACUUM_INCREMENTAL){
+            if(!force){
+                return true;
+            }
+            try {
+                PetDbHelper.executePragma(db, "PRAGMA auto_vacuum = INCREMENTAL");
+                db.execSQL("VACUUM");
+            } catch (SQLiteException e) {
+                // Another connection is using the database, the next compaction tries again
+                Log.w(LOG_TAG, "Cannot vacuum the database", e);
+            }
+            return true;
+        }
+
+        while(freePages > 0){
+            if(!force && isInterrupted(start)){
+                return false;
+            }
+
+            // Every row of the PRAGMA frees one page, so the cursor is read to the end
+            Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + VACUUM_BATCH_PAGES + ")",
+                    null);
+            try {
+                cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+
+            long remainingPages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+            if(remainingPages >= freePages){
+                break;
+            }
+            freePages = remainingPages;
+        }
+        return true;
+    }
+
+    // Returns true if the provider has written since the compaction started
+    private boolean isInterrupted(long start) {
+        return mLastWriteTime >= start;
+    }
+
+    /**
+     * This method returns the totals of all the compactions for the METHOD_GET_COMPACTION_STATS
+     * call
+     * @return a Bundle with the KEY_COMPACTION_* values
+     */
+    Bundle toBundle() {
+
+        long freePages = DatabaseUtils.longForQuery(mDbHelper.getReadableDatabase(),
+                "PRAGMA freelist_count", null);
+
+        Bundle bundle = new Bundle();
+        synchronized (this) {
+            bundle.putInt(KEY_COMPACTION_RUNS, mRuns);
+            bundle.putLong(KEY_COMPACTION_ROWS_PURGED, mRowsPurged);
+            bundle.putLong(KEY_COMPACTION_PAGES_RECLAIMED, mPagesReclaimed);
+            bundle.putLong(KEY_COMPACTION_BYTES_RECLAIMED, mBytesReclaimed);
+            bundle.putLong(KEY_COMPACTION_LAST_RUN_MILLIS, mLastRunMillis);
+        }
+        bundle.putLong(KEY_COMPACTION_FREE_PAGES, freePages);
+        return bundle;
+    }
+}
@@ -6,6 +6,7 @@ package com.example.android.pets.data;
 
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -20,6 +21,104 @@ public final class PetContract {
     public static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
     // The path which is specific to the pets table in the content database
     public static final String PATH = "pets";
+    // The path which is appended to the pets path to search the pets by name and breed
+    public static final String PATH_SEARCH = "search";
+    // The path which is appended to the pets path to read the whole pets table as a file
+    public static final String PATH_EXPORT = "export";
+    // The path which is appended to the pets path to read the aggregate statistics of the pets
+    public static final String PATH_STATS = "stats";
+
+    // Query parameter of the pets URI which holds the _ID after which a page of pets starts
+    public static final String QUERY_PARAMETER_AFTER_ID = "after";
+    // Query parameter of the pets URI which holds the maximum number of pets in a page
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    // Query parameter of the stats URI which holds the column the pets are grouped by, either
+    // PetEntry.COLUMN_GENDER or PetEntry.COLUMN_BREED. Without it all the pets are one group
+    public static final String QUERY_PARAMETER_GROUP_BY = "group_by";
+
+    // Query parameter of the export URI which holds the format of the exported file
+    public static final String QUERY_PARAMETER_FORMAT = "format";
+    // Formats of the exported file, comma-separated values or one JSON object per line
+    public static final String FORMAT_CSV = "csv";
+    public static final String FORMAT_NDJSON = "ndjson";
+    // MIME types of the export formats
+    public static final String MIME_TYPE_CSV = "text/csv";
+    public static final String MIME_TYPE_NDJSON = "application/x-ndjson";
+
+    // Query parameter of a row change notification URI which holds the type of the change
+    public static final String QUERY_PARAMETER_OPERATION = "operation";
+    // Types of row changes
+    public static final String OPERATION_INSERT = "insert";
+    public static final String OPERATION_UPDATE = "update";
+    public static final String OPERATION_DELETE = "delete";
+
+    // Method of the provider's call() which returns the counters of its row cache
+    public static final String METHOD_GET_CACHE_STATS = "get_cache_stats";
+    // Keys of the Bundle which is returned by METHOD_GET_CACHE_STATS
+    public static final String KEY_CACHE_HITS = "cache_hits";
+    public static final String KEY_CACHE_MISSES = "cache_misses";
+    public static final String KEY_CACHE_SIZE = "cache_size";
+    public static final String KEY_CACHE_MAX_SIZE = "cache_max_size";
+
+    // Methods of the provider's call() which write the pets to a binary snapshot file and
+    // replace the pets with the pets of a snapshot file. The arg is the path of the file
+    public static final String METHOD_CREATE_SNAPSHOT = "create_snapshot";
+    public static final String METHOD_RESTORE_SNAPSHOT = "restore_snapshot";
+    // Keys of the Bundle which is returned by the snapshot methods
+    public static final String KEY_SNAPSHOT_ROWS = "snapshot_rows";
+    public static final String KEY_SNAPSHOT_BYTES = "snapshot_bytes";
+    public static final String KEY_SNAPSHOT_MILLIS = "snapshot_millis";
+
+    // Method of the provider's call() which returns the latencies of its operations
+    public static final String METHOD_GET_QUERY_METRICS = "get_query_metrics";
+    // Method of the provider's call() which clears the latencies of its operations
+    public static final String METHOD_RESET_QUERY_METRICS = "reset_query_metrics";
+    // Method of the provider's call() which sets the time in milliseconds above which an
+    // operation is logged as slow. The arg is the time
+    public static final String METHOD_SET_SLOW_QUERY_MILLIS = "set_slow_query_millis";
+    // Keys of the Bundle which is returned by the metrics methods. KEY_METRICS_OPERATIONS holds
+    // a Bundle of metrics for every operation and URI match, keyed like "query:pets"
+    public static final String KEY_METRICS_HISTOGRAM_BOUNDS = "metrics_histogram_bounds";
+    public static final String KEY_METRICS_SLOW_QUERY_MILLIS = "metrics_slow_query_millis";
+    public static final String KEY_METRICS_OPERATIONS = "metrics_operations";
+    // Keys of the metrics of one operation and URI match. The histogram has the number of
+    // calls up to every bound in microseconds, and the calls above the last bound
+    public static final String KEY_METRICS_CALLS = "metrics_calls";
+    public static final String KEY_METRICS_ROWS = "metrics_rows";
+    public static final String KEY_METRICS_TOTAL_MICROS = "metrics_total_micros";
+    public static final String KEY_METRICS_MAX_MICROS = "metrics_max_micros";
+    public static final String KEY_METRICS_MAIN_THREAD_CALLS = "metrics_main_thread_calls";
+    public static final String KEY_METRICS_SLOW_CALLS = "metrics_slow_calls";
+    public static final String KEY_METRICS_LAST_THREAD = "metrics_last_thread";
+    public static final String KEY_METRICS_HISTOGRAM = "metrics_histogram";
+
+    // Method of the provider's call() which purges the deleted pets and vacuums the database
+    // right away, instead of waiting until the pets table is idle. On a database which was
+    // created before version 10 the first call rewrites the whole file with a VACUUM
+    public static final String METHOD_COMPACT = "compact";
+    // Method of the provider's call() which returns the totals of the compactions
+    public static final String METHOD_GET_COMPACTION_STATS = "get_compaction_stats";
+    // Keys of the Bundle which is returned by the compaction methods. The free pages are the
+    // pages of the database file which are not reclaimed yet
+    public static final String KEY_COMPACTION_RUNS = "compaction_runs";
+    public static final String KEY_COMPACTION_ROWS_PURGED = "compaction_rows_purged";
+    public static final String KEY_COMPACTION_PAGES_RECLAIMED = "compaction_pages_reclaimed";
+    public static final String KEY_COMPACTION_BYTES_RECLAIMED = "compaction_bytes_reclaimed";
+    public static final String KEY_COMPACTION_LAST_RUN_MILLIS = "compaction_last_run_millis";
+    public static final String KEY_COMPACTION_FREE_PAGES = "compaction_free_pages";
+
+    // Method of the provider's call() which deletes the next chunk of all the pets. The arg is
+    // the maximum number of pets in the chunk, and the client calls it until no pet remains.
+    // The observers of the pets are notified once, when the last pet is deleted
+    public static final String METHOD_CLEAR_PETS = "clear_pets";
+    // Key of the extras of METHOD_CLEAR_PETS which allows the provider to drop and create the
+    // pets table again, which deletes all the pets in one step. The provider only does it when
+    // many chunks of pets are left, a smaller table is still deleted in chunks
+    public static final String KEY_CLEAR_ALLOW_TRUNCATE = "clear_allow_truncate";
+    // Keys of the Bundle which is returned by METHOD_CLEAR_PETS
+    public static final String KEY_CLEAR_ROWS_DELETED = "clear_rows_deleted";
+    public static final String KEY_CLEAR_ROWS_REMAINING = "clear_rows_remaining";
 
 
     // Private constructor so there cannot be any instance from this class
@@ -45,16 +144,52 @@ public final class PetContract {
         // The main URI of the database content
         public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon().appendPath(PATH).build();
 
+        // The URI which searches the pets, the search query is appended as the last path segment
+        // ( content://com.example.android.pets/pets/search/<query> )
+        public static final Uri CONTENT_SEARCH_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_SEARCH).build();
+
+        // The URI which reads the whole pets table as a file through openFile()
+        // ( content://com.example.android.pets/pets/export?format=<format> )
+        public static final Uri CONTENT_EXPORT_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_EXPORT).build();
+
         // Name of the table in the database
         public static final String TABLE_NAME = "pets";
+        // Name of the view which joins every pet with the name of its breed. The provider reads
+        // the pets from it, so its clients see COLUMN_BREED as the breed name
+        public static final String VIEW_NAME = "pets_view";
+        // Name of the full-text search table which mirrors the name and breed of every pet
+        public static final String SEARCH_TABLE_NAME = "pets_search";
         // Column id for the name of the pet
         public static final String COLUMN_NAME = "name";
         // Column id for the breed of the pet
         public static final String COLUMN_BREED = "breed";
+        // Column of the pets table with the BreedEntry._ID of the breed. The clients of the
+        // provider only use COLUMN_BREED, which is resolved to and from this column
+        public static final String COLUMN_BREED_ID = "breed_id";
         // Column id for the gender of the pet
         public static final String COLUMN_GENDER = "gender";
         // Column id for the weight of the pet
         public static final String COLUMN_WEIGHT = "weight";
+        // Column of the pets table which is 1 for the deleted pets until they are purged. The
+        // provider never returns the deleted pets, so its clients do not see this column
+        public static final String COLUMN_DELETED = "deleted";
+
+        // All the columns of a pet, e.g. for the editor. The projections must not be modified
+        public static final String[] PROJECTION_ALL = {
+                _ID,
+                COLUMN_NAME,
+                COLUMN_BREED,
+                COLUMN_GENDER,
+                COLUMN_WEIGHT
+        };
+        // The columns of a pet which are shown in the catalog list
+        public static final String[] PROJECTION_LIST = {
+                _ID,
+                COLUMN_NAME,
+                COLUMN_BREED
+        };
 
 
         // Constant value for the male gender
@@ -63,5 +198,114 @@ public final class PetContract {
         public static final int GENDER_FEMALE = 2;
         // Constant value for the unknown gender
         public static final int GENDER_UNKNOWN = 0;
+
+        /**
+         * This method builds the URI which returns one page of pets ordered by _ID. Paging by
+         * the last _ID instead of an offset keeps every page as fast as the first one
+         * @param afterId is the _ID of the last pet of the previous page, 0 for the first page
+         * @param limit is the maximum number of pets in the page
+         * @return the page URI
+         */
+        public static Uri buildPageUri(long afterId, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * This method builds the URI with which the provider notifies the change of a single
+         * pet, e.g. content://com.example.android.pets/pets/5?operation=update. A change of
+         * several pets at once is notified with CONTENT_URI
+         * @param id is the _ID of the changed pet
+         * @param operation is the type of the change (OPERATION_INSERT, OPERATION_UPDATE or
+         *                  OPERATION_DELETE)
+         * @return the change notification URI
+         */
+        public static Uri buildChangeUri(long id, String operation) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_OPERATION, operation)
+                    .build();
+        }
+
+        /**
+         * This method builds the URI which searches the pets whose name or breed start with the
+         * words of the given query
+         * @param query is the text the user searched for
+         * @return the search URI
+         */
+        public static Uri buildSearchUri(String query) {
+            return CONTENT_SEARCH_URI.buildUpon().appendPath(query).build();
+        }
+
+        /**
+         * This method builds the URI which reads the whole pets table as a file
+         * @param format is FORMAT_CSV or FORMAT_NDJSON
+         * @return the export URI
+         */
+        public static Uri buildExportUri(String format) {
+            return CONTENT_EXPORT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_FORMAT, format)
+                    .build();
+        }
+    }
+    /**
+     * This class contains the constants of the breeds table, which stores every breed name once.
+     * The pets refer to it with PetEntry.COLUMN_BREED_ID
+     */
+    public static class BreedEntry implements BaseColumns {
+
+        // Name of the table in the database
+        public static final String TABLE_NAME = "breeds";
+        // Column id for the name of the breed, which is unique
+        public static final String COLUMN_NAME = "name";
+    }
+
+    /**
+     * This class contains the constants of the aggregate statistics of the pets. A stats cursor
+     * has one row for every group, with the grouped column (gender or breed) followed by
+     * COLUMN_COUNT, COLUMN_AVERAGE_WEIGHT, COLUMN_MIN_WEIGHT and COLUMN_MAX_WEIGHT
+     */
+    public static class StatsEntry {
+
+        // This string helps the getType() method in the content provider to return the type of
+        // the statistics
+        public static final String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH + "/" + PATH_STATS;
+
+        // The URI of the statistics of all the pets
+        // ( content://com.example.android.pets/pets/stats )
+        public static final Uri CONTENT_URI = PetEntry.CONTENT_URI.buildUpon()
+                .appendPath(PATH_STATS).build();
+
+        // Name of the summary table which the triggers keep up to date with the pets table
+        public static final String TABLE_NAME = "pets_stats";
+        // Column of the summary table with the column the group is grouped by, which is
+        // GROUP_ALL for the group of all the pets
+        public static final String COLUMN_GROUP_BY = "group_by";
+        // Column of the summary table with the gender or breed of the group
+        public static final String COLUMN_GROUP_VALUE = "group_value";
+        // Column of the summary table with the sum of the weights of the group
+        public static final String COLUMN_WEIGHT_SUM = "weight_sum";
+        // Columns of the summary table and of the stats cursor
+        public static final String COLUMN_COUNT = "count";
+        public static final String COLUMN_MIN_WEIGHT = "min_weight";
+        public static final String COLUMN_MAX_WEIGHT = "max_weight";
+        // Column of the stats cursor with the average weight of the group
+        public static final String COLUMN_AVERAGE_WEIGHT = "average_weight";
+
+        // Value of COLUMN_GROUP_BY and COLUMN_GROUP_VALUE for the group of all the pets
+        public static final String GROUP_ALL = "";
+
+        /**
+         * This method builds the URI of the statistics of the pets grouped by a column
+         * @param groupBy is PetEntry.COLUMN_GENDER or PetEntry.COLUMN_BREED
+         * @return the stats URI
+         */
+        public static Uri buildStatsUri(String groupBy) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_GROUP_BY, groupBy)
+                    .build();
+        }
     }
 }
@@ -0,0 +1,71 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+import static com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * This class wraps a cursor of pets and reads the columns of the current pet by name. The
+ * column indices are looked up once when the cursor is wrapped instead of for every row, and
+ * the accessors do not allocate anything besides the strings of the cursor.
+ *
+ * The cursor only has to contain the columns which are read, e.g. PetEntry.PROJECTION_LIST
+ * for the catalog. Reading a column which is not in the projection throws an
+ * IllegalStateException.
+ */
+public class PetCursor extends CursorWrapper {
+
+    // The indices of the columns, -1 for the columns which are not in the cursor
+    private final int mIdIndex;
+    private final int mNameIndex;
+    private final int mBreedIndex;
+    private final int mGenderIndex;
+    private final int mWeightIndex;
+
+    /**
+     * Public constructor to wrap a cursor of pets
+     * @param cursor is a cursor of the pets URIs, which is closed with the wrapper
+     */
+    public PetCursor(Cursor cursor) {
+        super(cursor);
+        mIdIndex = cursor.getColumnIndex(PetEntry._ID);
+        mNameIndex = cursor.getColumnIndex(PetEntry.COLUMN_NAME);
+        mBreedIndex = cursor.getColumnIndex(PetEntry.COLUMN_BREED);
+        mGenderIndex = cursor.getColumnIndex(PetEntry.COLUMN_GENDER);
+        mWeightIndex = cursor.getColumnIndex(PetEntry.COLUMN_WEIGHT);
+    }
+
+    // Returns the _ID of the current pet
+    public long getId() {
+        return getLong(checkColumn(mIdIndex, PetEntry._ID));
+    }
+
+    // Returns the name of the current pet
+    public String getName() {
+        return getString(checkColumn(mNameIndex, PetEntry.COLUMN_NAME));
+    }
+
+    // Returns the breed of the current pet
+    public String getBreed() {
+        return getString(checkColumn(mBreedIndex, PetEntry.COLUMN_BREED));
+    }
+
+    // Returns the gender of the current pet, one of the PetEntry.GENDER_* constants
+    public int getGender() {
+        return getInt(checkColumn(mGenderIndex, PetEntry.COLUMN_GENDER));
+    }
+
+    // Returns the weight of the current pet
+    public int getWeight() {
+        return getInt(checkColumn(mWeightIndex, PetEntry.COLUMN_WEIGHT));
+    }
+
+    // Returns the index of a column, or throws if the column is not in the cursor
+    private static int checkColumn(int index, String column) {
+        if(index < 0){
+            throw new IllegalStateException("Column " + column + " is not in the projection");
+        }
+        return index;
+    }
+}
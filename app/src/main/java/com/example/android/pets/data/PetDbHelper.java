@@ -1,10 +1,16 @@
 package com.example.android.pets.data;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 import android.util.Log;
 
+import static com.example.android.pets.data.PetContract.BreedEntry;
+import static com.example.android.pets.data.PetContract.StatsEntry;
+
 /**
  * Created by terz99 on 4/12/17.
  */
@@ -15,7 +21,34 @@ public class PetDbHelper extends SQLiteOpenHelper{
     // The name of the database
     private static final String DATABASE_NAME = "pets.db";
     // The current version of the database
-    private static final int DATABASE_VERSION = 5;
+    static final int DATABASE_VERSION = 11;
+    // The oldest version of the database which can be upgraded without losing its data
+    static final int MIN_MIGRATABLE_VERSION = 5;
+    // Names of the secondary indexes on the pets table
+    private static final String INDEX_NAME = "pets_name_index";
+    private static final String INDEX_GENDER = "pets_gender_index";
+    private static final String INDEX_BREED_NAME = "pets_breed_name_index";
+    private static final String INDEX_TOMBSTONE = "pets_tombstone_index";
+    // Names of the indexes which the statistics triggers read the weights of a group from
+    private static final String INDEX_WEIGHT = "pets_weight_index";
+    private static final String INDEX_GENDER_WEIGHT = "pets_gender_weight_index";
+    private static final String INDEX_BREED_WEIGHT = "pets_breed_weight_index";
+    // SQLite supports partial indexes from version 3.8.0, which Android ships from API 21
+    private static final boolean PARTIAL_INDEXES =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    // Number of WAL pages after which SQLite checkpoints the log back into the database file
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+    // Definition of the column which marks the deleted pets
+    private static final String TOMBSTONE_COLUMN_DEFINITION = PetContract.PetEntry.COLUMN_DELETED
+            + " INTEGER NOT NULL DEFAULT 0";
+    // Selection of the pets which are not deleted
+    static final String LIVE_SELECTION = PetContract.PetEntry.COLUMN_DELETED + " = 0";
+    // The groups of the statistics summary table
+    private static final String[] STATS_GROUPS = {
+            StatsEntry.GROUP_ALL,
+            PetContract.PetEntry.COLUMN_GENDER,
+            PetContract.PetEntry.COLUMN_BREED
+    };
 
 
     /**
@@ -28,40 +61,644 @@ public class PetDbHelper extends SQLiteOpenHelper{
     }
 
     /**
-     * This method executes the SQL_CREATE_TABLE_ENTRY command in SQL
+     * This method configures the connection before the database is created or upgraded. It turns
+     * on write-ahead logging, so the readers (the catalog loader) can run in parallel with a
+     * single writer (the editor or a bulk import) instead of being blocked by it
      * @param sqLiteDatabase is the database
      */
     @Override
-    public void onCreate(SQLiteDatabase sqLiteDatabase) {
+    public void onConfigure(SQLiteDatabase sqLiteDatabase) {
+        super.onConfigure(sqLiteDatabase);
+        // A new database is created with incremental vacuum, so the PetCompactor can give the
+        // pages of the purged pets back to the file system. An existing database only changes
+        // its mode when a forced compaction vacuums it
+        executePragma(sqLiteDatabase, "PRAGMA auto_vacuum = INCREMENTAL");
+        sqLiteDatabase.enableWriteAheadLogging();
+        configureWriteAheadLog(sqLiteDatabase);
+    }
+
+    /**
+     * This method creates the pets table
+     * @param sqLiteDatabase is the database
+     * @param table is the name of the table
+     * @param tombstones is true to create the COLUMN_DELETED column, which exists from
+     *                   version 10
+     */
+    private void createPetsTable(SQLiteDatabase sqLiteDatabase, String table, boolean tombstones) {
 
         // SQL command to create a table
         final String SQL_CREATE_TABLE_ENTRY = "CREATE TABLE "
-                + PetContract.PetEntry.TABLE_NAME + "("
+                + table + "("
                 + PetContract.PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
                 + PetContract.PetEntry.COLUMN_NAME + " TEXT NOT NULL, "
-                + PetContract.PetEntry.COLUMN_BREED + " TEXT NOT NULL, "
+                + PetContract.PetEntry.COLUMN_BREED_ID + " INTEGER NOT NULL REFERENCES "
+                + BreedEntry.TABLE_NAME + "(" + BreedEntry._ID + "), "
                 + PetContract.PetEntry.COLUMN_GENDER + " INTEGER NOT NULL, "
-                + PetContract.PetEntry.COLUMN_WEIGHT + " INTEGER NOT NULL);";
+                + PetContract.PetEntry.COLUMN_WEIGHT + " INTEGER NOT NULL"
+                + (tombstones ? ", " + TOMBSTONE_COLUMN_DEFINITION : "") + ");";
 
         sqLiteDatabase.execSQL(SQL_CREATE_TABLE_ENTRY);
+    }
+
+    /**
+     * This method creates the breeds table, which holds every breed name once
+     * @param sqLiteDatabase is the database
+     */
+    private void createBreedsTable(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE TABLE " + BreedEntry.TABLE_NAME + "("
+                + BreedEntry._ID + " INTEGER PRIMARY KEY, "
+                + BreedEntry.COLUMN_NAME + " TEXT NOT NULL UNIQUE);");
+    }
+
+    /**
+     * This method creates the view which the provider reads the pets from. It has the columns of
+     * the contract, with the breed name in place of the breed _ID, and leaves out the deleted
+     * pets
+     * @param sqLiteDatabase is the database
+     * @param tombstones is true if the pets table has the COLUMN_DELETED column
+     */
+    private void createPetsView(SQLiteDatabase sqLiteDatabase, boolean tombstones) {
+
+        final String table = PetContract.PetEntry.TABLE_NAME;
+
+        sqLiteDatabase.execSQL("CREATE VIEW " + PetContract.PetEntry.VIEW_NAME + " AS SELECT "
+                + table + "." + PetContract.PetEntry._ID + " AS " + PetContract.PetEntry._ID + ", "
+                + table + "." + PetContract.PetEntry.COLUMN_NAME + " AS "
+                + PetContract.PetEntry.COLUMN_NAME + ", "
+                + BreedEntry.TABLE_NAME + "." + BreedEntry.COLUMN_NAME + " AS "
+                + PetContract.PetEntry.COLUMN_BREED + ", "
+                + table + "." + PetContract.PetEntry.COLUMN_GENDER + " AS "
+                + PetContract.PetEntry.COLUMN_GENDER + ", "
+                + table + "." + PetContract.PetEntry.COLUMN_WEIGHT + " AS "
+                + PetContract.PetEntry.COLUMN_WEIGHT
+                + " FROM " + table + " JOIN " + BreedEntry.TABLE_NAME + " ON "
+                + BreedEntry.TABLE_NAME + "." + BreedEntry._ID + " = "
+                + table + "." + PetContract.PetEntry.COLUMN_BREED_ID
+                + (tombstones ? " WHERE " + table + "." + LIVE_SELECTION : "") + ";");
+    }
+
+    /**
+     * This method creates the FTS4 table which is used to search the pets by name and breed.
+     * The docid of every row is the _ID of its pet, and the triggers keep the table in sync
+     * with the pets table
+     * @param sqLiteDatabase is the database
+     * @param breedColumn is the column of the pets table with the breed, COLUMN_BREED before
+     *                    version 9 and COLUMN_BREED_ID from version 9
+     */
+    private void createSearchTable(SQLiteDatabase sqLiteDatabase, String breedColumn) {
+
+        sqLiteDatabase.execSQL("CREATE VIRTUAL TABLE " + PetContract.PetEntry.SEARCH_TABLE_NAME
+                + " USING fts4(" + PetContract.PetEntry.COLUMN_NAME + ", "
+                + PetContract.PetEntry.COLUMN_BREED + ");");
+
+        createSearchTriggers(sqLiteDatabase, breedColumn);
+    }
+
+    /**
+     * This method creates the triggers which keep the FTS4 table in sync with the pets table
+     * @param sqLiteDatabase is the database
+     * @param breedColumn is the column of the pets table with the breed, see createSearchTable()
+     */
+    private void createSearchTriggers(SQLiteDatabase sqLiteDatabase, String breedColumn) {
+
+        final String table = PetContract.PetEntry.TABLE_NAME;
+        final String searchTable = PetContract.PetEntry.SEARCH_TABLE_NAME;
+        final String id = PetContract.PetEntry._ID;
+        final String name = PetContract.PetEntry.COLUMN_NAME;
+        final String breed = PetContract.PetEntry.COLUMN_BREED;
+
+        // The name of the new breed of a pet
+        final String newBreed = breedColumn.equals(breed) ? "new." + breed
+                : "(SELECT " + BreedEntry.COLUMN_NAME + " FROM " + BreedEntry.TABLE_NAME
+                + " WHERE " + BreedEntry._ID + " = new." + breedColumn + ")";
+
+        sqLiteDatabase.execSQL("CREATE TRIGGER " + table + "_search_insert AFTER INSERT ON "
+                + table + " BEGIN INSERT INTO " + searchTable + "(docid, " + name + ", " + breed
+                + ") VALUES (new." + id + ", new." + name + ", " + newBreed + "); END;");
+
+        sqLiteDatabase.execSQL("CREATE TRIGGER " + table + "_search_update AFTER UPDATE OF "
+                + name + ", " + breedColumn + " ON " + table + " BEGIN UPDATE " + searchTable
+                + " SET " + name + " = new." + name + ", " + breed + " = " + newBreed
+                + " WHERE docid = old." + id + "; END;");
+
+        sqLiteDatabase.execSQL("CREATE TRIGGER " + table + "_search_delete AFTER DELETE ON "
+                + table + " BEGIN DELETE FROM " + searchTable
+                + " WHERE docid = old." + id + "; END;");
+    }
+
+    /**
+     * This method creates the summary table of the pet statistics and the triggers which keep
+     * it up to date. The table has one row for all the pets, one for every gender and one for
+     * every breed, with the count, the sum of the weights and the minimum and maximum weight,
+     * so reading the statistics does not scan the pets table. Only the removal of a group's
+     * minimum or maximum weight reads the pets of that group again
+     * @param sqLiteDatabase is the database
+     * @param breedColumn is the column of the pets table with the breed, see createSearchTable()
+     * @param tombstones is true if the pets table has the COLUMN_DELETED column
+     */
+    private void createStatsTable(SQLiteDatabase sqLiteDatabase, String breedColumn,
+                                  boolean tombstones) {
+
+        sqLiteDatabase.execSQL("CREATE TABLE " + StatsEntry.TABLE_NAME + "("
+                + StatsEntry.COLUMN_GROUP_BY + " TEXT NOT NULL, "
+                + StatsEntry.COLUMN_GROUP_VALUE + " NOT NULL, "
+                + StatsEntry.COLUMN_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + StatsEntry.COLUMN_WEIGHT_SUM + " INTEGER NOT NULL DEFAULT 0, "
+                + StatsEntry.COLUMN_MIN_WEIGHT + " INTEGER, "
+                + StatsEntry.COLUMN_MAX_WEIGHT + " INTEGER, "
+                + "PRIMARY KEY (" + StatsEntry.COLUMN_GROUP_BY + ", "
+                + StatsEntry.COLUMN_GROUP_VALUE + "));");
+
+        createStatsTriggers(sqLiteDatabase, breedColumn, tombstones);
+    }
+
+    /**
+     * This method creates the triggers which keep the summary table of the pet statistics up to
+     * date. The breed groups are grouped by the breed column, i.e. by the breed _ID from
+     * version 9. From version 10 the deleted pets are not counted, so a pet leaves its groups
+     * when it is marked as deleted, and purging it later does not change the statistics
+     * @param sqLiteDatabase is the database
+     * @param breedColumn is the column of the pets table with the breed, see createSearchTable()
+     * @param tombstones is true if the pets table has the COLUMN_DELETED column
+     */
+    private void createStatsTriggers(SQLiteDatabase sqLiteDatabase, String breedColumn,
+                                     boolean tombstones) {
+
+        final String table = PetContract.PetEntry.TABLE_NAME;
+        final String weight = PetContract.PetEntry.COLUMN_WEIGHT;
+        final String deleted = PetContract.PetEntry.COLUMN_DELETED;
+
+        StringBuilder insert = new StringBuilder();
+        StringBuilder delete = new StringBuilder();
+        for(String groupBy : STATS_GROUPS){
+            String column = statsGroupColumn(groupBy, breedColumn);
+            appendStatsAdd(insert, groupBy, column, "new");
+            appendStatsRemove(delete, groupBy, column, "old", tombstones);
+        }
+
+        sqLiteDatabase.execSQL("CREATE TRIGGER " + table + "_stats_insert AFTER INSERT ON "
+                + table + (tombstones ? " WHEN new." + LIVE_SELECTION : "")
+                + " BEGIN " + insert + "END;");
+
+        sqLiteDatabase.execSQL("CREATE TRIGGER " + table + "_stats_delete AFTER DELETE ON "
+                + table + (tombstones ? " WHEN old." + LIVE_SELECTION : "")
+                + " BEGIN " + delete + "END;");
+
+        // An update moves the pet out of its old groups and into its new groups
+        sqLiteDatabase.execSQL("CREATE TRIGGER " + table + "_stats_update AFTER UPDATE OF "
+                + PetContract.PetEntry.COLUMN_GENDER + ", "
+                + breedColumn + ", "
+                + weight + " ON " + table
+                + (tombstones ? " WHEN old." + LIVE_SELECTION + " AND new." + LIVE_SELECTION : "")
+                + " BEGIN " + delete + insert + "END;");
+
+        // Marking a pet as deleted moves it out of its groups
+        if(tombstones){
+            sqLiteDatabase.execSQL("CREATE TRIGGER " + table + "_stats_tombstone AFTER UPDATE OF "
+                    + deleted + " ON " + table + " WHEN old." + LIVE_SELECTION + " AND new."
+                    + deleted + " != 0 BEGIN " + delete + "END;");
+        }
+    }
+
+    /**
+     * This method fills the summary table of the pet statistics with the existing pets
+     * @param sqLiteDatabase is the database
+     * @param breedColumn is the column of the pets table with the breed, see createSearchTable()
+     * @param tombstones is true if the pets table has the COLUMN_DELETED column
+     */
+    private void fillStatsTable(SQLiteDatabase sqLiteDatabase, String breedColumn,
+                                boolean tombstones) {
+        for(String groupBy : STATS_GROUPS){
+            fillStatsGroup(sqLiteDatabase, groupBy, statsGroupColumn(groupBy, breedColumn),
+                    tombstones);
+        }
+    }
+
+    /**
+     * This method fills the summary rows of one kind of group with the existing pets
+     * @param sqLiteDatabase is the database
+     * @param groupBy is the kind of group, one of STATS_GROUPS
+     * @param column is the column of the pets table the group is grouped by
+     * @param tombstones is true if the pets table has the COLUMN_DELETED column
+     */
+    private void fillStatsGroup(SQLiteDatabase sqLiteDatabase, String groupBy, String column,
+                                boolean tombstones) {
+
+        final String weight = PetContract.PetEntry.COLUMN_WEIGHT;
+
+        // The group of all the pets is grouped by a constant, so an empty table has no group
+        String groupValue = groupBy.equals(StatsEntry.GROUP_ALL) ? "''" : column;
+        sqLiteDatabase.execSQL("INSERT INTO " + StatsEntry.TABLE_NAME + " SELECT '"
+                + groupBy + "', " + groupValue + ", COUNT(*), SUM(" + weight + "), MIN("
+                + weight + "), MAX(" + weight + ") FROM " + PetContract.PetEntry.TABLE_NAME
+                + (tombstones ? " WHERE " + LIVE_SELECTION : "")
+                + " GROUP BY " + groupValue + ";");
+    }
+
+    // Returns the column of the pets table a kind of group is grouped by
+    private static String statsGroupColumn(String groupBy, String breedColumn) {
+        return groupBy.equals(PetContract.PetEntry.COLUMN_BREED) ? breedColumn : groupBy;
+    }
+
+    // Appends the trigger statements which add the row "pet" (new or old) to its group
+    private static void appendStatsAdd(StringBuilder sql, String groupBy, String column,
+                                       String pet) {
+
+        final String weight = pet + "." + PetContract.PetEntry.COLUMN_WEIGHT;
+        final String where = statsGroupSelection(groupBy, column, pet);
+
+        sql.append("INSERT OR IGNORE INTO ").append(StatsEntry.TABLE_NAME).append(" (")
+                .append(StatsEntry.COLUMN_GROUP_BY).append(", ")
+                .append(StatsEntry.COLUMN_GROUP_VALUE).append(") VALUES ('")
+                .append(groupBy).append("', ").append(statsGroupValue(groupBy, column, pet))
+                .append("); ");
+
+        sql.append("UPDATE ").append(StatsEntry.TABLE_NAME).append(" SET ")
+                .append(StatsEntry.COLUMN_COUNT).append(" = ")
+                .append(StatsEntry.COLUMN_COUNT).append(" + 1, ")
+                .append(StatsEntry.COLUMN_WEIGHT_SUM).append(" = ")
+                .append(StatsEntry.COLUMN_WEIGHT_SUM).append(" + ").append(weight).append(", ")
+                .append(StatsEntry.COLUMN_MIN_WEIGHT).append(" = CASE WHEN ")
+                .append(StatsEntry.COLUMN_MIN_WEIGHT).append(" IS NULL OR ").append(weight)
+                .append(" < ").append(StatsEntry.COLUMN_MIN_WEIGHT).append(" THEN ")
+                .append(weight).append(" ELSE ").append(StatsEntry.COLUMN_MIN_WEIGHT).append(" END, ")
+                .append(StatsEntry.COLUMN_MAX_WEIGHT).append(" = CASE WHEN ")
+                .append(StatsEntry.COLUMN_MAX_WEIGHT).append(" IS NULL OR ").append(weight)
+                .append(" > ").append(StatsEntry.COLUMN_MAX_WEIGHT).append(" THEN ")
+                .append(weight).append(" ELSE ").append(StatsEntry.COLUMN_MAX_WEIGHT).append(" END")
+                .append(" WHERE ").append(where).append("; ");
+    }
+
+    // Appends the trigger statements which remove the row "pet" (new or old) from its group.
+    // With tombstones the minimum and maximum weight are read from the pets which are not
+    // deleted
+    private static void appendStatsRemove(StringBuilder sql, String groupBy, String column,
+                                          String pet, boolean tombstones) {
+
+        final String table = PetContract.PetEntry.TABLE_NAME;
+        final String weightColumn = PetContract.PetEntry.COLUMN_WEIGHT;
+        final String weight = pet + "." + weightColumn;
+        final String where = statsGroupSelection(groupBy, column, pet);
+        String pets = groupBy.equals(StatsEntry.GROUP_ALL) ? table
+                : table + " WHERE " + column + " = " + pet + "." + column;
+        if(tombstones){
+            pets += (groupBy.equals(StatsEntry.GROUP_ALL) ? " WHERE " : " AND ") + LIVE_SELECTION;
+        }
+
+        sql.append("UPDATE ").append(StatsEntry.TABLE_NAME).append(" SET ")
+                .append(StatsEntry.COLUMN_COUNT).append(" = ")
+                .append(StatsEntry.COLUMN_COUNT).append(" - 1, ")
+                .append(StatsEntry.COLUMN_WEIGHT_SUM).append(" = ")
+                .append(StatsEntry.COLUMN_WEIGHT_SUM).append(" - ").append(weight)
+                .append(" WHERE ").append(where).append("; ");
+
+        // If the pet had the minimum or maximum weight of its group then read them again
+        sql.append("UPDATE ").append(StatsEntry.TABLE_NAME).append(" SET ")
+                .append(StatsEntry.COLUMN_MIN_WEIGHT).append(" = (SELECT MIN(").append(weightColumn)
+                .append(") FROM ").append(pets).append("), ")
+                .append(StatsEntry.COLUMN_MAX_WEIGHT).append(" = (SELECT MAX(").append(weightColumn)
+                .append(") FROM ").append(pets).append(") WHERE ").append(where)
+                .append(" AND (").append(StatsEntry.COLUMN_MIN_WEIGHT).append(" = ").append(weight)
+                .append(" OR ").append(StatsEntry.COLUMN_MAX_WEIGHT).append(" = ").append(weight)
+                .append("); ");
+
+        sql.append("DELETE FROM ").append(StatsEntry.TABLE_NAME).append(" WHERE ").append(where)
+                .append(" AND ").append(StatsEntry.COLUMN_COUNT).append(" = 0; ");
+    }
+
+    // Returns the value of COLUMN_GROUP_VALUE for the row "pet" (new or old) in a trigger
+    private static String statsGroupValue(String groupBy, String column, String pet) {
+        return groupBy.equals(StatsEntry.GROUP_ALL) ? "''" : pet + "." + column;
+    }
+
+    // Returns the selection of the summary row of the group of the row "pet" in a trigger
+    private static String statsGroupSelection(String groupBy, String column, String pet) {
+        return StatsEntry.COLUMN_GROUP_BY + " = '" + groupBy + "' AND "
+                + StatsEntry.COLUMN_GROUP_VALUE + " = " + statsGroupValue(groupBy, column, pet);
+    }
+
+    /**
+     * This method is called every time the database is opened. onConfigure() is only called from
+     * API 16, so on older versions the write-ahead logging is turned on here
+     * @param sqLiteDatabase is the database
+     */
+    @Override
+    public void onOpen(SQLiteDatabase sqLiteDatabase) {
+        super.onOpen(sqLiteDatabase);
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !sqLiteDatabase.isReadOnly()){
+            sqLiteDatabase.enableWriteAheadLogging();
+            configureWriteAheadLog(sqLiteDatabase);
+        }
+    }
+
+    /**
+     * This method applies the settings which go together with write-ahead logging. In WAL mode
+     * synchronous=NORMAL is still safe against corruption and only syncs at checkpoints
+     * @param sqLiteDatabase is the database
+     */
+    private void configureWriteAheadLog(SQLiteDatabase sqLiteDatabase) {
+        executePragma(sqLiteDatabase, "PRAGMA synchronous = NORMAL");
+        executePragma(sqLiteDatabase, "PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES);
+    }
+
+    /**
+     * This method executes a PRAGMA command. Some PRAGMA commands return a row, so they are
+     * executed as a query instead of with execSQL()
+     * @param sqLiteDatabase is the database
+     * @param pragma is the PRAGMA command
+     */
+    static void executePragma(SQLiteDatabase sqLiteDatabase, String pragma) {
+        Cursor cursor = sqLiteDatabase.rawQuery(pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * This method executes the SQL_CREATE_TABLE_ENTRY command in SQL
+     * @param sqLiteDatabase is the database
+     */
+    @Override
+    public void onCreate(SQLiteDatabase sqLiteDatabase) {
+
+        final String breedId = PetContract.PetEntry.COLUMN_BREED_ID;
+
+        createBreedsTable(sqLiteDatabase);
+        createPetsTable(sqLiteDatabase, PetContract.PetEntry.TABLE_NAME, true);
+        createPetsView(sqLiteDatabase, true);
+        createIndexes(sqLiteDatabase, breedId, true);
+        createStatsIndexes(sqLiteDatabase, breedId, true);
+        createSearchTable(sqLiteDatabase, breedId);
+        createStatsTable(sqLiteDatabase, breedId, true);
 
         Log.i(TAG, "Database created");
     }
 
     /**
-     * This method upgrades a newer version of the database and drop the older version
+     * This method creates the secondary indexes which are used by the catalog queries, so
+     * selections and sort orders on the name, breed and gender do not scan the whole table.
+     * The composite (breed, name) index also serves the queries on the breed alone.
+     *
+     * With tombstones the catalog indexes only hold the pets which are not deleted, and one more
+     * index holds the deleted pets for the PetCompactor. Before API 21 SQLite has no partial
+     * indexes, so all of them hold every pet
+     * @param sqLiteDatabase is the database
+     * @param breedColumn is the column of the pets table with the breed, see createSearchTable()
+     * @param tombstones is true if the pets table has the COLUMN_DELETED column
+     */
+    private void createIndexes(SQLiteDatabase sqLiteDatabase, String breedColumn,
+                               boolean tombstones) {
+
+        final String live = tombstones ? LIVE_SELECTION : null;
+
+        createIndex(sqLiteDatabase, INDEX_NAME, PetContract.PetEntry.COLUMN_NAME, live);
+
+        createIndex(sqLiteDatabase, INDEX_GENDER, PetContract.PetEntry.COLUMN_GENDER, live);
+
+        createIndex(sqLiteDatabase, INDEX_BREED_NAME,
+                breedColumn + ", " + PetContract.PetEntry.COLUMN_NAME, live);
+
+        if(tombstones){
+            createIndex(sqLiteDatabase, INDEX_TOMBSTONE, PetContract.PetEntry.COLUMN_DELETED,
+                    PetContract.PetEntry.COLUMN_DELETED + " != 0");
+        }
+    }
+
+    /**
+     * This method creates the indexes which the statistics triggers need. When a pet with the
+     * minimum or maximum weight of its group leaves the group, the triggers read the new
+     * minimum and maximum of the group. With an index on (group column, weight) these are the
+     * first and the last entry of the group in the index, instead of a scan of the group
+     * @param sqLiteDatabase is the database
+     * @param breedColumn is the column of the pets table with the breed, see createSearchTable()
+     * @param tombstones is true if the pets table has the COLUMN_DELETED column
+     */
+    private void createStatsIndexes(SQLiteDatabase sqLiteDatabase, String breedColumn,
+                                    boolean tombstones) {
+
+        final String weight = PetContract.PetEntry.COLUMN_WEIGHT;
+        final String live = tombstones ? LIVE_SELECTION : null;
+
+        createIndex(sqLiteDatabase, INDEX_WEIGHT, weight, live);
+
+        createIndex(sqLiteDatabase, INDEX_GENDER_WEIGHT,
+                PetContract.PetEntry.COLUMN_GENDER + ", " + weight, live);
+
+        createIndex(sqLiteDatabase, INDEX_BREED_WEIGHT, breedColumn + ", " + weight, live);
+    }
+
+    /**
+     * This method creates an index on the pets table, which is a partial index if SQLite
+     * supports it
+     * @param sqLiteDatabase is the database
+     * @param name is the name of the index
+     * @param columns are the indexed columns
+     * @param where is the condition of the rows in a partial index, or null for all the rows
+     */
+    private static void createIndex(SQLiteDatabase sqLiteDatabase, String name, String columns,
+                                    String where) {
+        sqLiteDatabase.execSQL("CREATE INDEX IF NOT EXISTS " + name + " ON "
+                + PetContract.PetEntry.TABLE_NAME + "(" + columns + ")"
+                + (where != null && PARTIAL_INDEXES ? " WHERE " + where : "") + ";");
+    }
+
+    /**
+     * This method moves the breed names of the pets into the breeds table and replaces the
+     * breed column of the pets table with the _ID of the breed. SQLite cannot drop a column, so
+     * the pets table is copied into a new table, which also drops its indexes and triggers
      * @param sqLiteDatabase is the database which is being upgraded
-     * @param i is the id of the older version
-     * @param i1 is the id of the newer version
+     */
+    private void normalizeBreeds(SQLiteDatabase sqLiteDatabase) {
+
+        final String table = PetContract.PetEntry.TABLE_NAME;
+        final String newTable = table + "_new";
+        final String breeds = BreedEntry.TABLE_NAME;
+        final String breedId = PetContract.PetEntry.COLUMN_BREED_ID;
+
+        createBreedsTable(sqLiteDatabase);
+        sqLiteDatabase.execSQL("INSERT INTO " + breeds + "(" + BreedEntry.COLUMN_NAME
+                + ") SELECT DISTINCT " + PetContract.PetEntry.COLUMN_BREED + " FROM " + table + ";");
+
+        createPetsTable(sqLiteDatabase, newTable, false);
+        sqLiteDatabase.execSQL("INSERT INTO " + newTable + "("
+                + PetContract.PetEntry._ID + ", "
+                + PetContract.PetEntry.COLUMN_NAME + ", "
+                + breedId + ", "
+                + PetContract.PetEntry.COLUMN_GENDER + ", "
+                + PetContract.PetEntry.COLUMN_WEIGHT + ") SELECT "
+                + table + "." + PetContract.PetEntry._ID + ", "
+                + table + "." + PetContract.PetEntry.COLUMN_NAME + ", "
+                + breeds + "." + BreedEntry._ID + ", "
+                + table + "." + PetContract.PetEntry.COLUMN_GENDER + ", "
+                + table + "." + PetContract.PetEntry.COLUMN_WEIGHT + " FROM " + table
+                + " JOIN " + breeds + " ON " + breeds + "." + BreedEntry.COLUMN_NAME + " = "
+                + table + "." + PetContract.PetEntry.COLUMN_BREED + ";");
+
+        // Keep the AUTOINCREMENT counter, so the _IDs of deleted pets are not used again
+        sqLiteDatabase.execSQL("DELETE FROM sqlite_sequence WHERE name = '" + newTable + "';");
+        sqLiteDatabase.execSQL("INSERT INTO sqlite_sequence (name, seq) SELECT '" + newTable
+                + "', seq FROM sqlite_sequence WHERE name = '" + table + "';");
+
+        sqLiteDatabase.execSQL("DROP TABLE " + table + ";");
+        sqLiteDatabase.execSQL("ALTER TABLE " + newTable + " RENAME TO " + table + ";");
+
+        createPetsView(sqLiteDatabase, false);
+        createIndexes(sqLiteDatabase, breedId, false);
+        createSearchTriggers(sqLiteDatabase, breedId);
+        createStatsTriggers(sqLiteDatabase, breedId, false);
+
+        // The breed groups of the statistics are grouped by the breed _ID now
+        sqLiteDatabase.execSQL("DELETE FROM " + StatsEntry.TABLE_NAME + " WHERE "
+                + StatsEntry.COLUMN_GROUP_BY + " = '" + PetContract.PetEntry.COLUMN_BREED + "';");
+        fillStatsGroup(sqLiteDatabase, PetContract.PetEntry.COLUMN_BREED, breedId, false);
+    }
+
+    /**
+     * This method adds the COLUMN_DELETED column to the pets table, so the provider can mark a
+     * pet as deleted and the PetCompactor purges it later. The view, the indexes and the
+     * statistics triggers are created again to leave out the deleted pets. The search triggers
+     * stay, the search reads the pets through the view
+     * @param sqLiteDatabase is the database which is being upgraded
+     */
+    private void addTombstones(SQLiteDatabase sqLiteDatabase) {
+
+        final String table = PetContract.PetEntry.TABLE_NAME;
+
+        sqLiteDatabase.execSQL("ALTER TABLE " + table + " ADD COLUMN "
+                + TOMBSTONE_COLUMN_DEFINITION + ";");
+
+        sqLiteDatabase.execSQL("DROP VIEW " + PetContract.PetEntry.VIEW_NAME + ";");
+        createPetsView(sqLiteDatabase, true);
+
+        sqLiteDatabase.execSQL("DROP INDEX " + INDEX_NAME + ";");
+        sqLiteDatabase.execSQL("DROP INDEX " + INDEX_GENDER + ";");
+        sqLiteDatabase.execSQL("DROP INDEX " + INDEX_BREED_NAME + ";");
+        createIndexes(sqLiteDatabase, PetContract.PetEntry.COLUMN_BREED_ID, true);
+
+        // No pet is deleted yet, so the summary table stays as it is
+        sqLiteDatabase.execSQL("DROP TRIGGER " + table + "_stats_insert;");
+        sqLiteDatabase.execSQL("DROP TRIGGER " + table + "_stats_delete;");
+        sqLiteDatabase.execSQL("DROP TRIGGER " + table + "_stats_update;");
+        createStatsTriggers(sqLiteDatabase, PetContract.PetEntry.COLUMN_BREED_ID, true);
+    }
+
+    /**
+     * This method deletes all the pets by dropping the pets table and creating it again, which
+     * is much faster than deleting the pets one by one through the triggers. The search table
+     * is created again and the statistics are emptied as well, the breeds stay. It must be
+     * called inside a transaction
+     * @param sqLiteDatabase is the writable database
+     */
+    void truncatePets(SQLiteDatabase sqLiteDatabase) {
+
+        final String table = PetContract.PetEntry.TABLE_NAME;
+        final String breedId = PetContract.PetEntry.COLUMN_BREED_ID;
+
+        // Keep the AUTOINCREMENT counter, so the _IDs of the deleted pets are not used again
+        long sequence = DatabaseUtils.longForQuery(sqLiteDatabase,
+                "SELECT IFNULL((SELECT seq FROM sqlite_sequence WHERE name = '" + table
+                        + "'), 0)", null);
+
+        // Dropping the table drops its indexes and triggers, the view stays
+        sqLiteDatabase.execSQL("DROP TABLE " + table + ";");
+        sqLiteDatabase.execSQL("DROP TABLE " + PetContract.PetEntry.SEARCH_TABLE_NAME + ";");
+        sqLiteDatabase.execSQL("DELETE FROM " + StatsEntry.TABLE_NAME + ";");
+
+        createPetsTable(sqLiteDatabase, table, true);
+        sqLiteDatabase.execSQL("INSERT INTO sqlite_sequence (name, seq) VALUES ('" + table
+                + "', " + sequence + ");");
+        createIndexes(sqLiteDatabase, breedId, true);
+        createStatsIndexes(sqLiteDatabase, breedId, true);
+        createSearchTable(sqLiteDatabase, breedId);
+        createStatsTriggers(sqLiteDatabase, breedId, true);
+    }
+
+    /**
+     * This method upgrades the database from an older version by applying the migration of every
+     * version in between, one version at a time. SQLiteOpenHelper runs this method inside one
+     * transaction, so either all the migrations are applied or none of them
+     * @param sqLiteDatabase is the database which is being upgraded
+     * @param oldVersion is the id of the older version
+     * @param newVersion is the id of the newer version
      */
     @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1) {
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+
+        // The databases older than MIN_MIGRATABLE_VERSION have no known schema history, so they
+        // are dropped and created again
+        if(oldVersion < MIN_MIGRATABLE_VERSION){
+
+            // SQL command to delete (drop) table
+            final String SQL_DELETE_TABLE_ENTRY =
+                    "DROP TABLE IF EXISTS " + PetContract.PetEntry.TABLE_NAME;
+
+            sqLiteDatabase.execSQL(SQL_DELETE_TABLE_ENTRY);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+
+        for(int version = oldVersion; version < newVersion; version++){
+            migrate(sqLiteDatabase, version);
+            Log.i(TAG, "Database migrated from version " + version + " to " + (version + 1));
+        }
+    }
+
+    /**
+     * This method applies the ALTER/CREATE steps which move the database from the given version
+     * to the next one. Every schema change adds a case here and bumps DATABASE_VERSION, and
+     * onCreate() always creates the newest schema directly
+     * @param sqLiteDatabase is the database which is being upgraded
+     * @param fromVersion is the version which is being migrated from
+     */
+    private void migrate(SQLiteDatabase sqLiteDatabase, int fromVersion) {
+
+        switch (fromVersion){
+
+            // Version 6 adds the secondary indexes of the catalog queries
+            case 5:
+                createIndexes(sqLiteDatabase, PetContract.PetEntry.COLUMN_BREED, false);
+                break;
+
+            // Version 7 adds the full-text search table and fills it with the existing pets
+            case 6:
+                createSearchTable(sqLiteDatabase, PetContract.PetEntry.COLUMN_BREED);
+                sqLiteDatabase.execSQL("INSERT INTO " + PetContract.PetEntry.SEARCH_TABLE_NAME
+                        + "(docid, " + PetContract.PetEntry.COLUMN_NAME + ", "
+                        + PetContract.PetEntry.COLUMN_BREED + ") SELECT "
+                        + PetContract.PetEntry._ID + ", "
+                        + PetContract.PetEntry.COLUMN_NAME + ", "
+                        + PetContract.PetEntry.COLUMN_BREED + " FROM "
+                        + PetContract.PetEntry.TABLE_NAME + ";");
+                break;
+
+            // Version 8 adds the summary table of the statistics and fills it with the existing
+            // pets
+            case 7:
+                createStatsTable(sqLiteDatabase, PetContract.PetEntry.COLUMN_BREED, false);
+                fillStatsTable(sqLiteDatabase, PetContract.PetEntry.COLUMN_BREED, false);
+                break;
+
+            // Version 9 moves the breed names into the breeds table
+            case 8:
+                normalizeBreeds(sqLiteDatabase);
+                break;
+
+            // Version 10 marks the deleted pets instead of deleting them right away
+            case 9:
+                addTombstones(sqLiteDatabase);
+                break;
 
-        // SQL command to delete (drop) table
-        final String SQL_DELETE_TABLE_ENTRY =
-                "DROP TABLE IF EXISTS " + PetContract.PetEntry.TABLE_NAME;
+            // Version 11 adds the indexes which the statistics triggers read the minimum and
+            // maximum weight of a group from
+            case 10:
+                createStatsIndexes(sqLiteDatabase, PetContract.PetEntry.COLUMN_BREED_ID, true);
+                break;
 
-        sqLiteDatabase.execSQL(SQL_DELETE_TABLE_ENTRY);
-        onCreate(sqLiteDatabase);
+            // There is no migration for this version
+            default:
+                throw new IllegalStateException("No migration from database version " + fromVersion);
+        }
     }
 }
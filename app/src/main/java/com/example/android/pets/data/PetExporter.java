@@ -0,0 +1,221 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import static com.example.android.pets.data.PetContract.*;
+
+/**
+ * This class exports the pets table as CSV or as newline-delimited JSON. The table is read
+ * through the PetProvider in _ID-ordered pages of CHUNK_SIZE pets, and every page is written
+ * and closed before the next one is queried, so the memory which is used does not depend on the
+ * number of pets.
+ *
+ * The CSV file has a header row and can be read back by the PetImporter, as can the JSON file,
+ * which has one pet object per line.
+ */
+public class PetExporter {
+
+    /**
+     * Listener which is called on the exporting thread after every written chunk
+     */
+    public interface ProgressListener {
+        void onProgress(long rowsExported);
+    }
+
+    // Number of pets which are read with one query
+    private static final int CHUNK_SIZE = 1000;
+
+    // Size of the buffer in front of the output stream
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // The exported columns, in order
+    private static final String[] PROJECTION = PetEntry.PROJECTION_ALL;
+
+    // Content resolver which reads the pets from the PetProvider
+    private final ContentResolver mContentResolver;
+
+    /**
+     * Public constructor to create an exporter
+     * @param contentResolver is the content resolver which reads the pets
+     */
+    public PetExporter(ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+    }
+
+    /**
+     * This method writes all the pets to the stream. It blocks until all the pets are written,
+     * so it must not be called on the main thread
+     * @param outputStream is the stream the pets are written to, it is flushed but not closed
+     * @param format is FORMAT_CSV or FORMAT_NDJSON
+     * @param listener is called after every chunk, or null
+     * @return the number of exported pets
+     * @throws IOException if the stream cannot be written
+     */
+    public long exportPets(OutputStream outputStream, String format, ProgressListener listener)
+            throws IOException {
+
+        final boolean isCsv;
+        if(FORMAT_CSV.equals(format)){
+            isCsv = true;
+        } else if(FORMAT_NDJSON.equals(format)){
+            isCsv = false;
+        } else {
+            throw new IllegalArgumentException("Unknown export format " + format);
+        }
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, "UTF-8"),
+                BUFFER_SIZE);
+
+        if(isCsv){
+            for(int i = 0; i < PROJECTION.length; i++){
+                if(i > 0){
+                    writer.write(',');
+                }
+                writer.write(PROJECTION[i]);
+            }
+            writer.write('\n');
+        }
+
+        long rowsExported = 0;
+        long afterId = 0;
+        while(true){
+
+            // Read the next chunk after the last exported pet
+            Cursor cursor = mContentResolver.query(PetEntry.buildPageUri(afterId, CHUNK_SIZE),
+                    PROJECTION, null, null, null);
+            if(cursor == null){
+                break;
+            }
+
+            int rows;
+            try {
+                rows = cursor.getCount();
+                while(cursor.moveToNext()){
+                    if(isCsv){
+                        writeCsvRow(writer, cursor);
+                    } else {
+                        writeJsonRow(writer, cursor);
+                    }
+                    afterId = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            rowsExported += rows;
+            if(listener != null && rows > 0){
+                listener.onProgress(rowsExported);
+            }
+
+            // A chunk which is not full is the end of the table
+            if(rows < CHUNK_SIZE){
+                break;
+            }
+        }
+
+        writer.flush();
+        return rowsExported;
+    }
+
+    /**
+     * This method returns the MIME type of an export format
+     * @param format is FORMAT_CSV or FORMAT_NDJSON
+     * @return the MIME type of the exported file
+     */
+    public static String getMimeType(String format) {
+        return FORMAT_NDJSON.equals(format) ? MIME_TYPE_NDJSON : MIME_TYPE_CSV;
+    }
+
+    // Writes the current row of the cursor as a CSV record
+    private static void writeCsvRow(Writer writer, Cursor cursor) throws IOException {
+        for(int i = 0; i < PROJECTION.length; i++){
+            if(i > 0){
+                writer.write(',');
+            }
+            if(cursor.isNull(i)){
+                continue;
+            }
+            String value = cursor.getString(i);
+            if(needsQuotes(value)){
+                writer.write('"');
+                writer.write(value.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(value);
+            }
+        }
+        writer.write('\n');
+    }
+
+    // Writes the current row of the cursor as a JSON object on its own line
+    private static void writeJsonRow(Writer writer, Cursor cursor) throws IOException {
+        writer.write('{');
+        for(int i = 0; i < PROJECTION.length; i++){
+            if(i > 0){
+                writer.write(',');
+            }
+            writer.write('"');
+            writer.write(PROJECTION[i]);
+            writer.write("\":");
+            if(cursor.isNull(i)){
+                writer.write("null");
+            } else if(cursor.getType(i) == Cursor.FIELD_TYPE_INTEGER){
+                writer.write(Long.toString(cursor.getLong(i)));
+            } else {
+                writeJsonString(writer, cursor.getString(i));
+            }
+        }
+        writer.write("}\n");
+    }
+
+    // Returns true if a CSV field has to be quoted
+    private static boolean needsQuotes(String value) {
+        for(int i = 0; i < value.length(); i++){
+            char c = value.charAt(i);
+            if(c == ',' || c == '"' || c == '\n' || c == '\r'){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Writes a quoted and escaped JSON string
+    private static void writeJsonString(Writer writer, String value) throws IOException {
+        writer.write('"');
+        for(int i = 0; i < value.length(); i++){
+            char c = value.charAt(i);
+            switch (c){
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    if(c < 0x20 || c == '\u2028' || c == '\u2029'){
+                        writer.write("\\u");
+                        writer.write(Integer.toHexString(0x10000 | c).substring(1));
+                    } else {
+                        writer.write(c);
+                    }
+            }
+        }
+        writer.write('"');
+    }
+}
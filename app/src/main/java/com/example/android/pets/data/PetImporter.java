@@ -0,0 +1,426 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.SystemClock;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * This class imports pets from a CSV or JSON stream through a bounded pipeline:
+ *
+ * parse and validate (on a parser thread) -> queue of at most QUEUE_BATCHES batches ->
+ * bulkInsert() of every batch in one transaction (on the calling thread)
+ *
+ * When the database is slower than the parser, the queue is full and the parser waits, so only
+ * a few batches are ever in memory no matter how big the file is.
+ *
+ * A CSV file starts with a header row which names the columns (name, breed, gender, weight)
+ * in any order. A JSON file is either an array of pet objects or a sequence of pet objects,
+ * e.g. one per line. The format is detected from the first character of the stream.
+ */
+public class PetImporter {
+
+    /**
+     * Listener which is called on the importing thread after every committed batch
+     */
+    public interface ProgressListener {
+        void onProgress(long rowsImported, long rowsRejected, long rowsPerSecond);
+    }
+
+    /**
+     * The outcome of an import
+     */
+    public static class Result {
+
+        public final long rowsImported;
+        public final long rowsRejected;
+        public final long elapsedMillis;
+
+        Result(long rowsImported, long rowsRejected, long elapsedMillis) {
+            this.rowsImported = rowsImported;
+            this.rowsRejected = rowsRejected;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        // Returns the average number of imported rows per second
+        public long getRowsPerSecond() {
+            return rowsPerSecond(rowsImported, elapsedMillis);
+        }
+    }
+
+    // Number of pets which are inserted in one transaction
+    private static final int BATCH_SIZE = 500;
+
+    // Number of parsed batches which may wait for the database
+    private static final int QUEUE_BATCHES = 2;
+
+    // Marks the end of the parsed batches in the queue
+    private static final ContentValues[] END_OF_STREAM = new ContentValues[0];
+
+    // Content resolver which inserts the batches through the PetProvider
+    private final ContentResolver mContentResolver;
+
+    // Set when the import should stop after the current batch
+    private volatile boolean mCancelled;
+
+    /**
+     * Public constructor to create an importer
+     * @param contentResolver is the content resolver which inserts the pets
+     */
+    public PetImporter(ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+    }
+
+    /**
+     * This method stops a running import after its current batch. The batches which were
+     * already committed stay in the database
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * This method imports all the pets of the stream. It blocks until the stream has been read
+     * or the import was cancelled, so it must not be called on the main thread
+     * @param inputStream is the CSV or JSON stream, which is closed by this method
+     * @param listener is called after every committed batch, or null
+     * @return the numbers of imported and rejected rows
+     * @throws IOException if the stream cannot be read or is malformed. An unchecked exception
+     * of the parser is rethrown as it is
+     */
+    public Result importPets(InputStream inputStream, ProgressListener listener)
+            throws IOException {
+
+        final long start = SystemClock.elapsedRealtime();
+        final BufferedReader reader =
+                new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+        final BlockingQueue<ContentValues[]> queue = new ArrayBlockingQueue<>(QUEUE_BATCHES);
+        final Parser parser = new Parser(reader, queue);
+
+        Thread parserThread = new Thread(parser, "PetImporter");
+        parserThread.start();
+
+        long rowsImported = 0;
+        try {
+            while(!mCancelled){
+
+                // Wait for the next batch
+                ContentValues[] batch;
+                try {
+                    batch = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                if(batch == END_OF_STREAM){
+                    break;
+                }
+
+                // Insert the batch in one transaction
+                rowsImported += mContentResolver.bulkInsert(PetEntry.CONTENT_URI, batch);
+
+                if(listener != null){
+                    long elapsed = SystemClock.elapsedRealtime() - start;
+                    listener.onProgress(rowsImported, parser.getRowsRejected(),
+                            rowsPerSecond(rowsImported, elapsed));
+                }
+            }
+        } finally {
+            // Stop the parser if it is still running, e.g. after an error or a cancel
+            parserThread.interrupt();
+            reader.close();
+        }
+
+        // Rethrow the error which stopped the parser on the importing thread
+        Throwable error = parser.mError;
+        if(error != null && !mCancelled){
+            if(error instanceof IOException){
+                throw (IOException) error;
+            } else if(error instanceof RuntimeException){
+                throw (RuntimeException) error;
+            } else if(error instanceof Error){
+                throw (Error) error;
+            }
+            throw new IOException(error);
+        }
+
+        return new Result(rowsImported, parser.getRowsRejected(),
+                SystemClock.elapsedRealtime() - start);
+    }
+
+    // Returns the number of rows per second
+    private static long rowsPerSecond(long rows, long elapsedMillis) {
+        return elapsedMillis == 0 ? rows * 1000 : rows * 1000 / elapsedMillis;
+    }
+
+    /**
+     * The first stage of the pipeline, which parses and validates the pets and puts them into
+     * the queue in batches
+     */
+    private static class Parser implements Runnable {
+
+        private final BufferedReader mReader;
+        private final BlockingQueue<ContentValues[]> mQueue;
+
+        // The batch which is being filled
+        private ContentValues[] mBatch = new ContentValues[BATCH_SIZE];
+        private int mBatchSize;
+
+        // Number of rows which were not valid, it is read by the importing thread
+        private volatile long mRowsRejected;
+
+        // The error which stopped the parser, it is read after the end of the stream
+        volatile Throwable mError;
+
+        Parser(BufferedReader reader, BlockingQueue<ContentValues[]> queue) {
+            mReader = reader;
+            mQueue = queue;
+        }
+
+        long getRowsRejected() {
+            return mRowsRejected;
+        }
+
+        @Override
+        public void run() {
+            boolean stopped = false;
+            try {
+                if(isJson(mReader)){
+                    parseJson();
+                } else {
+                    parseCsv();
+                }
+                flush();
+            } catch (InterruptedException e) {
+                // The import was stopped, so nobody waits for the end of the stream
+                stopped = true;
+            } catch (Throwable e) {
+                // Any error, also an unchecked one, is carried back to the importing thread
+                mError = e;
+            } finally {
+                // The importing thread waits for the end of the stream however the parser ends
+                if(!stopped){
+                    try {
+                        mQueue.put(END_OF_STREAM);
+                    } catch (InterruptedException e) {
+                        // The import was stopped
+                    }
+                }
+            }
+        }
+
+        // Validates a parsed pet and adds it to the batch, or counts it as rejected
+        private void add(ContentValues contentValues) throws InterruptedException {
+
+            if(PetValidator.validate(contentValues, true) != PetValidator.VALID){
+                mRowsRejected++;
+                return;
+            }
+
+            mBatch[mBatchSize++] = contentValues;
+            if(mBatchSize == BATCH_SIZE){
+                flush();
+            }
+        }
+
+        // Puts the current batch into the queue, waiting while the queue is full
+        private void flush() throws InterruptedException {
+
+            if(mBatchSize == 0){
+                return;
+            }
+
+            ContentValues[] batch = mBatch;
+            if(mBatchSize < BATCH_SIZE){
+                batch = new ContentValues[mBatchSize];
+                System.arraycopy(mBatch, 0, batch, 0, mBatchSize);
+            }
+            mQueue.put(batch);
+
+            mBatch = new ContentValues[BATCH_SIZE];
+            mBatchSize = 0;
+        }
+
+        // Parses a CSV stream whose first row is the header
+        private void parseCsv() throws IOException, InterruptedException {
+
+            CsvReader csv = new CsvReader(mReader);
+            List<String> fields = new ArrayList<>();
+
+            // Map the columns of the file to the pet columns
+            if(!csv.readRecord(fields)){
+                return;
+            }
+            String[] columns = new String[fields.size()];
+            for(int i = 0; i < columns.length; i++){
+                columns[i] = toPetColumn(fields.get(i).trim());
+            }
+
+            while(csv.readRecord(fields)){
+
+                // Skip empty lines
+                if(fields.size() == 1 && fields.get(0).length() == 0){
+                    continue;
+                }
+
+                // A row with a different number of fields than the header is rejected
+                if(fields.size() != columns.length){
+                    mRowsRejected++;
+                    continue;
+                }
+
+                ContentValues contentValues = new ContentValues(4);
+                for(int i = 0; i < columns.length; i++){
+                    if(columns[i] != null){
+                        contentValues.put(columns[i], fields.get(i).trim());
+                    }
+                }
+                add(contentValues);
+            }
+        }
+
+        // Parses a JSON array of pets, or a sequence of pets
+        private void parseJson() throws IOException, InterruptedException {
+
+            JsonReader json = new JsonReader(mReader);
+            json.setLenient(true);
+
+            boolean isArray = json.peek() == JsonToken.BEGIN_ARRAY;
+            if(isArray){
+                json.beginArray();
+            }
+
+            while(json.hasNext() && json.peek() != JsonToken.END_DOCUMENT){
+
+                // Anything but an object is rejected
+                if(json.peek() != JsonToken.BEGIN_OBJECT){
+                    json.skipValue();
+                    mRowsRejected++;
+                    continue;
+                }
+
+                ContentValues contentValues = new ContentValues(4);
+                json.beginObject();
+                while(json.hasNext()){
+                    String column = toPetColumn(json.nextName());
+                    JsonToken token = json.peek();
+                    if(column != null && (token == JsonToken.STRING
+                            || token == JsonToken.NUMBER || token == JsonToken.BOOLEAN)){
+                        contentValues.put(column, token == JsonToken.BOOLEAN
+                                ? String.valueOf(json.nextBoolean()) : json.nextString());
+                    } else {
+                        json.skipValue();
+                    }
+                }
+                json.endObject();
+                add(contentValues);
+            }
+
+            if(isArray){
+                json.endArray();
+            }
+        }
+
+        // Returns the pet column with the given name, or null if it is not a pet column
+        private static String toPetColumn(String name) {
+            for(String column : PetEntry.PROJECTION_ALL){
+                if(column.equalsIgnoreCase(name) && !column.equals(PetEntry._ID)){
+                    return column;
+                }
+            }
+            return null;
+        }
+
+        // Returns true if the first character of the stream which is not a whitespace starts
+        // a JSON value
+        private static boolean isJson(BufferedReader reader) throws IOException {
+            while(true){
+                reader.mark(1);
+                int c = reader.read();
+                if(c == -1){
+                    return false;
+                }
+                if(!Character.isWhitespace(c) && c != '\uFEFF'){
+                    reader.reset();
+                    return c == '[' || c == '{';
+                }
+            }
+        }
+    }
+
+    /**
+     * A streaming reader of RFC 4180 CSV records. Fields may be quoted, and quoted fields may
+     * have commas, line breaks and doubled quotes in them
+     */
+    private static class CsvReader {
+
+        private final Reader mReader;
+        private final StringBuilder mField = new StringBuilder();
+
+        CsvReader(Reader reader) {
+            mReader = reader;
+        }
+
+        /**
+         * This method reads the next record
+         * @param fields receives the fields of the record
+         * @return false if the end of the stream was reached before the record
+         * @throws IOException if the stream cannot be read
+         */
+        boolean readRecord(List<String> fields) throws IOException {
+
+            fields.clear();
+            mField.setLength(0);
+
+            int c = mReader.read();
+            if(c == -1){
+                return false;
+            }
+
+            boolean quoted = false;
+            while(true){
+                if(quoted){
+                    if(c == -1){
+                        throw new IOException("Unterminated quoted field");
+                    } else if(c == '"'){
+                        c = mReader.read();
+                        if(c == '"'){
+                            mField.append('"');
+                        } else {
+                            quoted = false;
+                            continue;
+                        }
+                    } else {
+                        mField.append((char) c);
+                    }
+                } else if(c == '"' && mField.length() == 0){
+                    quoted = true;
+                } else if(c == ','){
+                    fields.add(mField.toString());
+                    mField.setLength(0);
+                } else if(c == '\n' || c == -1){
+                    break;
+                } else if(c != '\r'){
+                    mField.append((char) c);
+                }
+                c = mReader.read();
+            }
+
+            fields.add(mField.toString());
+            return true;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.example.android.pets.data.PetContract.*;
+
+/**
+ * This class records how long the operations of the PetProvider take. For every operation and
+ * URI match it keeps the number of calls and rows, a latency histogram and the threads which
+ * called it. An operation which takes longer than the slow query threshold is logged, and if it
+ * ran a query, the query is logged together with its EXPLAIN QUERY PLAN.
+ *
+ * A query only runs when its cursor is first read, so the provider counts the rows of the
+ * cursor before the query is recorded, which makes the time include running the query.
+ */
+class PetMetrics {
+
+    // Log tag
+    private static final String LOG_TAG = PetMetrics.class.getSimpleName();
+
+    // Upper bounds of the histogram buckets in microseconds. The last bucket of the histogram
+    // has no bound, so there is one bucket more than bounds
+    static final long[] HISTOGRAM_BOUNDS_MICROS = {
+            100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000, 1000000
+    };
+
+    // Default threshold above which an operation is logged as slow
+    static final long DEFAULT_SLOW_QUERY_MILLIS = 50;
+
+    // Database helper which runs the EXPLAIN QUERY PLAN of the slow queries
+    private final PetDbHelper mDbHelper;
+
+    // The metrics of every operation and URI match, keyed by "operation:match"
+    private final Map<String, Metrics> mMetrics = new HashMap<>();
+
+    // Threshold above which an operation is logged as slow
+    private volatile long mSlowQueryMillis = DEFAULT_SLOW_QUERY_MILLIS;
+
+    // The SQL and the arguments of the last query which the provider ran on the current thread
+    private final ThreadLocal<Object[]> mStatement = new ThreadLocal<>();
+
+    /**
+     * Package-private constructor to create the metrics of a provider
+     * @param dbHelper is the database helper of the provider
+     */
+    PetMetrics(PetDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * This method starts the measurement of an operation on the current thread
+     * @return the start time which has to be passed to record()
+     */
+    long start() {
+        mStatement.remove();
+        return System.nanoTime();
+    }
+
+    /**
+     * This method keeps the query which the current operation runs, so it can be explained
+     * if the operation is slow
+     * @param sql is the SQL of the query
+     * @param selectionArgs are the arguments of the query
+     */
+    void setStatement(String sql, String[] selectionArgs) {
+        mStatement.set(new Object[]{ sql, selectionArgs });
+    }
+
+    /**
+     * This method records an operation which has finished
+     * @param operation is the name of the operation, e.g. "query"
+     * @param match is the name of the matched URI, e.g. "pets"
+     * @param start is the time which start() returned
+     * @param rows is the number of rows which were read or changed
+     */
+    void record(String operation, String match, long start, int rows) {
+
+        long micros = (System.nanoTime() - start) / 1000;
+        boolean isMainThread = Looper.getMainLooper().getThread() == Thread.currentThread();
+        String thread = Thread.currentThread().getName();
+
+        String key = operation + ":" + match;
+        synchronized (this) {
+            Metrics metrics = mMetrics.get(key);
+            if(metrics == null){
+                metrics = new Metrics();
+                mMetrics.put(key, metrics);
+            }
+            metrics.add(micros, rows, isMainThread, thread, micros >= mSlowQueryMillis * 1000);
+        }
+
+        Object[] statement = mStatement.get();
+        mStatement.remove();
+        if(micros >= mSlowQueryMillis * 1000){
+            StringBuilder message = new StringBuilder()
+                    .append("Slow ").append(key).append(": ").append(micros / 1000.0)
+                    .append(" ms, ").append(rows).append(" rows on ").append(thread);
+            if(statement != null){
+                String sql = (String) statement[0];
+                String[] selectionArgs = (String[]) statement[1];
+                message.append('\n').append(sql);
+                if(selectionArgs != null){
+                    message.append("\nwith ").append(Arrays.toString(selectionArgs));
+                }
+                message.append('\n').append(explain(sql, selectionArgs));
+            }
+            Log.w(LOG_TAG, message.toString());
+        }
+    }
+
+    /**
+     * This method returns the EXPLAIN QUERY PLAN of a query, one step on every line
+     * @param sql is the SQL of the query
+     * @param selectionArgs are the arguments of the query
+     * @return the plan of the query, or the error which explaining it threw
+     */
+    private String explain(String sql, String[] selectionArgs) {
+        StringBuilder plan = new StringBuilder("Query plan:");
+        try {
+            Cursor cursor = mDbHelper.getReadableDatabase()
+                    .rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+            try {
+                int detail = cursor.getColumnIndexOrThrow("detail");
+                while(cursor.moveToNext()){
+                    plan.append("\n  ").append(cursor.getString(detail));
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (RuntimeException e) {
+            plan.append(" not available, ").append(e.getMessage());
+        }
+        return plan.toString();
+    }
+
+    // Threshold above which an operation is logged as slow
+    long getSlowQueryMillis() {
+        return mSlowQueryMillis;
+    }
+
+    // Sets the threshold above which an operation is logged as slow, 0 logs every operation
+    void setSlowQueryMillis(long slowQueryMillis) {
+        if(slowQueryMillis < 0){
+            throw new IllegalArgumentException("Negative slow query threshold " + slowQueryMillis);
+        }
+        mSlowQueryMillis = slowQueryMillis;
+    }
+
+    /**
+     * This method removes all the recorded operations
+     */
+    synchronized void reset() {
+        mMetrics.clear();
+    }
+
+    /**
+     * This method returns the recorded operations for the METHOD_GET_QUERY_METRICS call
+     * @return a Bundle with the histogram bounds, the slow query threshold and one Bundle of
+     * metrics for every operation and URI match
+     */
+    synchronized Bundle toBundle() {
+
+        Bundle operations = new Bundle();
+        for(Map.Entry<String, Metrics> entry : mMetrics.entrySet()){
+            operations.putBundle(entry.getKey(), entry.getValue().toBundle());
+        }
+
+        Bundle result = new Bundle();
+        result.putLongArray(KEY_METRICS_HISTOGRAM_BOUNDS, HISTOGRAM_BOUNDS_MICROS);
+        result.putLong(KEY_METRICS_SLOW_QUERY_MILLIS, mSlowQueryMillis);
+        result.putBundle(KEY_METRICS_OPERATIONS, operations);
+        return result;
+    }
+
+    /**
+     * The recorded calls of one operation and URI match
+     */
+    private static class Metrics {
+
+        private long mCalls;
+        private long mRows;
+        private long mTotalMicros;
+        private long mMaxMicros;
+        private long mMainThreadCalls;
+        private long mSlowCalls;
+        private String mLastThread;
+        private final long[] mHistogram = new long[HISTOGRAM_BOUNDS_MICROS.length + 1];
+
+        // Adds a call which took the given time
+        void add(long micros, int rows, boolean isMainThread, String thread, boolean isSlow) {
+
+            mCalls++;
+            mRows += rows;
+            mTotalMicros += micros;
+            mMaxMicros = Math.max(mMaxMicros, micros);
+            if(isMainThread){
+                mMainThreadCalls++;
+            }
+            if(isSlow){
+                mSlowCalls++;
+            }
+            mLastThread = thread;
+
+            int bucket = 0;
+            while(bucket < HISTOGRAM_BOUNDS_MICROS.length
+                    && micros > HISTOGRAM_BOUNDS_MICROS[bucket]){
+                bucket++;
+            }
+            mHistogram[bucket]++;
+        }
+
+        // Returns the metrics as a Bundle
+        Bundle toBundle() {
+            Bundle bundle = new Bundle();
+            bundle.putLong(KEY_METRICS_CALLS, mCalls);
+            bundle.putLong(KEY_METRICS_ROWS, mRows);
+            bundle.putLong(KEY_METRICS_TOTAL_MICROS, mTotalMicros);
+            bundle.putLong(KEY_METRICS_MAX_MICROS, mMaxMicros);
+            bundle.putLong(KEY_METRICS_MAIN_THREAD_CALLS, mMainThreadCalls);
+            bundle.putLong(KEY_METRICS_SLOW_CALLS, mSlowCalls);
+            bundle.putString(KEY_METRICS_LAST_THREAD, mLastThread);
+            bundle.putLongArray(KEY_METRICS_HISTOGRAM, mHistogram.clone());
+            return bundle;
+        }
+    }
+}
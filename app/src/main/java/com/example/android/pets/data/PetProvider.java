@@ -1,18 +1,37 @@
 package com.example.android.pets.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.provider.OpenableColumns;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
-import android.widget.Toast;
 
-import com.example.android.pets.R;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
 import static com.example.android.pets.data.PetContract.*;
 
@@ -28,12 +47,44 @@ public class PetProvider extends ContentProvider{
     // Log tag
     private static final String LOG_TAG = PetProvider.class.getSimpleName();
 
-    // Valid data code
-    public static final int VALID_DATA = 1;
-
     // Database helper instance for linking the database to the pet content provider
     private PetDbHelper mDbHelper;
 
+    // Cache of the recently read and inserted pets, which serves the single pet queries
+    private PetCache mCache;
+
+    // Maximum number of pets in the cache
+    private static final int CACHE_SIZE = 500;
+
+    // Maximum number of rows of a pets table query which are put into the cache. A bigger
+    // result, like a page of the catalog or of an export, would only evict the hot pets
+    private static final int CACHE_MAX_QUERY_ROWS = 20;
+
+    // Latencies of the operations of the provider
+    private PetMetrics mMetrics;
+
+    // Purges the deleted pets in the background
+    private PetCompactor mCompactor;
+
+    // Names of the operations in the metrics
+    private static final String METRIC_QUERY = "query";
+    private static final String METRIC_INSERT = "insert";
+    private static final String METRIC_BULK_INSERT = "bulk_insert";
+    private static final String METRIC_UPDATE = "update";
+    private static final String METRIC_DELETE = "delete";
+    private static final String METRIC_CLEAR = "clear";
+
+    // The prepared statements of the write paths, one set for every thread which writes
+    private final ThreadLocal<PetStatements> mStatements = new ThreadLocal<PetStatements>() {
+        @Override
+        protected PetStatements initialValue() {
+            return new PetStatements(mDbHelper);
+        }
+    };
+
+    // Value of the id argument of updatePet() when the rows are selected by a selection
+    private static final long NO_ID = -1;
+
     // URI Matcher
     private UriMatcher sUriMatcher;
 
@@ -42,6 +93,43 @@ public class PetProvider extends ContentProvider{
     private final static int PETS = 100;
     // Matching code for the URI matcher in case of needing a pet with a unique ID
     private final static int PET_ID = 101;
+    // Matching code for the URI matcher in case of searching the pets by name and breed
+    private final static int PET_SEARCH = 102;
+    // Matching code for the URI matcher in case of reading the pets table as a file
+    private final static int PET_EXPORT = 103;
+    // Matching code for the URI matcher in case of reading the statistics of the pets
+    private final static int PET_STATS = 104;
+
+    // Names of the matching codes in the metrics, in the order of the codes
+    private static final String[] MATCH_NAMES = {
+            "pets", "pet_id", "pet_search", "pet_export", "pet_stats"
+    };
+
+    // Alias of the search rank column, i.e. the number of query words a pet matched
+    private static final String SEARCH_RANK = "search_rank";
+
+    // Number of operations in a batch after which the transaction may yield to other threads
+    private static final int BATCH_YIELD_INTERVAL = 100;
+
+    // Default number of pets which METHOD_CLEAR_PETS deletes in one transaction
+    private static final int CLEAR_CHUNK_SIZE = 1000;
+
+    // Number of chunks above which METHOD_CLEAR_PETS truncates the pets table, if it is allowed.
+    // Below it the chunks are quick enough and let the client show the progress
+    private static final int CLEAR_TRUNCATE_CHUNKS = 10;
+
+    // Number of changed rows in a batch above which the observers get one table-wide
+    // notification instead of one notification for every row
+    private static final int MAX_BATCH_ROW_NOTIFICATIONS = 50;
+
+    // The URIs which have changed during the batch running on the current thread. While a batch
+    // is running the change notifications are collected here and sent once at commit
+    private final ThreadLocal<Set<Uri>> mBatchChangedUris = new ThreadLocal<>();
+
+    // The pets which the batch running on the current thread has inserted, by _ID. They are
+    // only cached once the batch is committed, so no other thread reads a pet from the cache
+    // which may still be rolled back
+    private final ThreadLocal<Map<Long, ContentValues>> mBatchInsertedPets = new ThreadLocal<>();
 
     /**
      * This method instantiates the pet database helper
@@ -56,18 +144,199 @@ public class PetProvider extends ContentProvider{
         // Set the URI matcher's matching codes
         sUriMatcher.addURI(CONTENT_AUTHORITY, PATH, PETS);
         sUriMatcher.addURI(CONTENT_AUTHORITY, PATH + "/#", PET_ID);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH + "/" + PATH_SEARCH + "/*", PET_SEARCH);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH + "/" + PATH_EXPORT, PET_EXPORT);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH + "/" + PATH_STATS, PET_STATS);
 
         // Initialzie the database helper
         mDbHelper = new PetDbHelper(getContext());
+
+        // Initialize the row cache
+        mCache = new PetCache(CACHE_SIZE);
+
+        // Initialize the metrics
+        mMetrics = new PetMetrics(mDbHelper);
+
+        // Initialize the compactor, which starts its thread with the first delete
+        mCompactor = new PetCompactor(mDbHelper);
         return true;
     }
 
+    /**
+     * This method closes the database. Android never calls it, it is meant for the code which
+     * creates a provider instance itself, like the benchmarks
+     */
+    @Override
+    public void shutdown() {
+        mCompactor.shutdown();
+        mDbHelper.close();
+    }
+
+    // Overriden method which lets the clients call the provider's own methods
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+
+        switch (method){
+
+            // Return the counters of the row cache, so the cache can be sized
+            case METHOD_GET_CACHE_STATS:
+                Bundle stats = new Bundle();
+                stats.putInt(KEY_CACHE_HITS, mCache.getHitCount());
+                stats.putInt(KEY_CACHE_MISSES, mCache.getMissCount());
+                stats.putInt(KEY_CACHE_SIZE, mCache.getSize());
+                stats.putInt(KEY_CACHE_MAX_SIZE, mCache.getMaxSize());
+                return stats;
+
+            // Write the pets to a snapshot file, or replace them with the pets of one
+            case METHOD_CREATE_SNAPSHOT:
+            case METHOD_RESTORE_SNAPSHOT:
+                if(arg == null){
+                    throw new IllegalArgumentException("Missing snapshot file for " + method);
+                }
+                return snapshot(method.equals(METHOD_RESTORE_SNAPSHOT), new File(arg));
+
+            // Return the latencies of the operations, so tools can watch the provider
+            case METHOD_GET_QUERY_METRICS:
+                return mMetrics.toBundle();
+
+            case METHOD_RESET_QUERY_METRICS:
+                mMetrics.reset();
+                return mMetrics.toBundle();
+
+            // Change the time above which the operations are logged
+            case METHOD_SET_SLOW_QUERY_MILLIS:
+                if(arg == null){
+                    throw new IllegalArgumentException("Missing slow query threshold");
+                }
+                mMetrics.setSlowQueryMillis(Long.parseLong(arg));
+                return mMetrics.toBundle();
+
+            // Purge the deleted pets now, e.g. before the database is backed up
+            case METHOD_COMPACT:
+                return mCompactor.compact(true);
+
+            case METHOD_GET_COMPACTION_STATS:
+                return mCompactor.toBundle();
+
+            // Delete the next chunk of all the pets
+            case METHOD_CLEAR_PETS:
+                return clearPets(arg == null ? CLEAR_CHUNK_SIZE : Integer.parseInt(arg),
+                        extras != null && extras.getBoolean(KEY_CLEAR_ALLOW_TRUNCATE));
+
+            default:
+                return super.call(method, arg, extras);
+        }
+    }
+
+    /**
+     * This method creates or restores a binary snapshot of the pets table
+     * @param restore is true to replace the pets with the snapshot, false to write the snapshot
+     * @param file is the snapshot file
+     * @return the number of pets, the size of the file and the time it took
+     */
+    private Bundle snapshot(boolean restore, File file) {
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long start = SystemClock.elapsedRealtime();
+
+        int rows;
+        try {
+            rows = restore ? PetSnapshot.restore(db, file) : PetSnapshot.write(db, file);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Snapshot " + file + " failed", e);
+        }
+
+        // Every pet may have changed
+        if(restore){
+            mCache.invalidateAll();
+            notifyChange(PetEntry.CONTENT_URI);
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(KEY_SNAPSHOT_ROWS, rows);
+        result.putLong(KEY_SNAPSHOT_BYTES, file.length());
+        result.putLong(KEY_SNAPSHOT_MILLIS, SystemClock.elapsedRealtime() - start);
+        return result;
+    }
+
+    /**
+     * This method deletes the next chunk of all the pets. Every chunk is its own transaction,
+     * so the other writers only wait for one chunk, and the client shows the progress between
+     * the chunks. If truncating is allowed and more than CLEAR_TRUNCATE_CHUNKS chunks of pets
+     * are left, the pets table is dropped and created again instead, which deletes all of them
+     * in one short transaction. The observers are notified once, when no pet is left or when a
+     * chunk found no pet to delete, e.g. because the summary count has drifted from the table
+     * @param chunkSize is the maximum number of pets which are marked as deleted
+     * @param allowTruncate is true if the pets table may be dropped and created again
+     * @return the number of pets which were deleted and which remain
+     */
+    private Bundle clearPets(int chunkSize, boolean allowTruncate) {
+
+        if(chunkSize <= 0){
+            throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+        }
+
+        // Start measuring the chunk
+        long start = mMetrics.start();
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        long rowsDeleted;
+        long rowsRemaining;
+        db.beginTransaction();
+        try {
+            // The summary table counts the pets without a scan
+            long rows = DatabaseUtils.longForQuery(db, "SELECT IFNULL(SUM("
+                    + StatsEntry.COLUMN_COUNT + "), 0) FROM " + StatsEntry.TABLE_NAME + " WHERE "
+                    + StatsEntry.COLUMN_GROUP_BY + " = '" + StatsEntry.GROUP_ALL + "'", null);
+
+            if(allowTruncate && rows > (long) chunkSize * CLEAR_TRUNCATE_CHUNKS){
+                mDbHelper.truncatePets(db);
+                rowsDeleted = rows;
+            } else {
+                ContentValues tombstone = new ContentValues(1);
+                tombstone.put(PetEntry.COLUMN_DELETED, 1);
+                rowsDeleted = db.update(PetEntry.TABLE_NAME, tombstone, PetEntry._ID
+                        + " IN (SELECT " + PetEntry._ID + " FROM " + PetEntry.TABLE_NAME
+                        + " WHERE " + PetDbHelper.LIVE_SELECTION + " LIMIT " + chunkSize + ")",
+                        null);
+            }
+            rowsRemaining = Math.max(0, rows - rowsDeleted);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if(rowsDeleted > 0){
+            mCache.invalidateAll();
+            mCompactor.onWrite(true);
+        }
+
+        // The client stops after this chunk, so the pets which the earlier chunks deleted are
+        // announced now
+        if(rowsDeleted == 0 || rowsRemaining == 0){
+            notifyChange(PetEntry.CONTENT_URI);
+        }
+
+        // The chunks delete from the whole pets table
+        mMetrics.record(METRIC_CLEAR, MATCH_NAMES[0], start, (int) rowsDeleted);
+
+        Bundle result = new Bundle();
+        result.putLong(KEY_CLEAR_ROWS_DELETED, rowsDeleted);
+        result.putLong(KEY_CLEAR_ROWS_REMAINING, rowsRemaining);
+        return result;
+    }
+
     // Overriden method which helps the ContentProvider to access the query method in the database
     @Nullable
     @Override
     public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
                         @Nullable String[] selectionArgs, @Nullable String sortOrder) {
 
+        // Start measuring the query
+        long start = mMetrics.start();
+
         // Get readable database
         SQLiteDatabase db = mDbHelper.getReadableDatabase();
 
@@ -77,36 +346,90 @@ public class PetProvider extends ContentProvider{
         // The cursor which this method will return
         Cursor retCursor;
 
+        // The URI whose changes the cursor is watching
+        Uri notificationUri = uri;
+
+        // The generation of the row cache from before the database is read
+        long cacheGeneration = mCache.getGeneration();
+
         switch (match){
 
             // If the uri matches the uri which provides the whole pets table
             case PETS:
 
+                // If the URI asks for a page then return the pets after the given _ID. The pages
+                // are scrolled or exported once, so they are not cached
+                String limit = uri.getQueryParameter(QUERY_PARAMETER_LIMIT);
+                if(limit != null){
+                    retCursor = queryPage(db, uri, projection, selection, selectionArgs, limit);
+                    break;
+                }
+
                 // Send query to the database and retrieve a cursor instance from it
-                retCursor = db.query(PetEntry.TABLE_NAME,
+                retCursor = queryTable(db, PetEntry.VIEW_NAME,
                         projection,
                         selection,
                         selectionArgs,
-                        null,
-                        null,
-                        sortOrder);
+                        sortOrder,
+                        null);
+
+                // Keep the rows of a small result, e.g. of a lookup by name, in the cache for
+                // the single pet queries which follow
+                if(retCursor.getCount() <= CACHE_MAX_QUERY_ROWS){
+                    mCache.putRows(retCursor, cacheGeneration);
+                }
 
                 break;
             case PET_ID:
 
+                // Serve the pet from the cache if possible
+                long id = ContentUris.parseId(uri);
+                retCursor = mCache.query(id, projection);
+                if(retCursor != null){
+                    break;
+                }
+
                 // Set selection String to retrieve information about the pet with the given id
                 selection = PetEntry._ID + "=?";
                 // All the selection Arguments are stored in selectionArgs String array
-                selectionArgs = new String[]{ String.valueOf(ContentUris.parseId(uri)) };
+                selectionArgs = new String[]{ String.valueOf(id) };
 
                 // Send query to the database and retrieve a cursor instance from it
-                retCursor = db.query(PetEntry.TABLE_NAME,
+                retCursor = queryTable(db, PetEntry.VIEW_NAME,
                         projection,
                         selection,
                         selectionArgs,
-                        null,
-                        null,
-                        sortOrder);
+                        sortOrder,
+                        null);
+
+                // Keep the row in the cache for the next time
+                mCache.putRows(retCursor, cacheGeneration);
+
+                break;
+            case PET_SEARCH:
+
+                // Search the pets with the query which is the last segment of the URI
+                retCursor = searchPets(db, uri.getLastPathSegment(), projection, selection,
+                        selectionArgs, sortOrder);
+
+                // The search results change with any pet, so watch the whole table
+                notificationUri = PetEntry.CONTENT_URI;
+
+                break;
+            case PET_STATS:
+
+                // Aggregate the pets, grouped by the column of the URI
+                retCursor = queryStats(db, uri.getQueryParameter(QUERY_PARAMETER_GROUP_BY),
+                        projection, selection, selectionArgs, sortOrder);
+
+                // The statistics change with any pet, so watch the whole table
+                notificationUri = PetEntry.CONTENT_URI;
+
+                break;
+            case PET_EXPORT:
+
+                // Describe the exported file to the apps it is shared with
+                retCursor = queryExportFile(uri, projection);
 
                 break;
             default:
@@ -114,11 +437,366 @@ public class PetProvider extends ContentProvider{
                 throw new UnsupportedOperationException("Unknown uri: " + uri.toString());
         }
 
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        retCursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
+
+        // Counting the rows runs the query, so it is part of the measured time
+        mMetrics.record(METRIC_QUERY, MATCH_NAMES[match - PETS], start, retCursor.getCount());
 
         return retCursor;
     }
 
+    /**
+     * This method queries the database like SQLiteDatabase.query(), and keeps the SQL for the
+     * slow query log
+     * @param db is the readable database
+     * @param table is the table or view which is queried
+     * @param projection is the list of columns to return, or null for all columns
+     * @param selection is the filter, or null for all the rows
+     * @param selectionArgs are the arguments of the selection
+     * @param sortOrder is the order of the rows
+     * @param limit is the maximum number of rows, or null for all of them
+     * @return a cursor with the rows
+     */
+    private Cursor queryTable(SQLiteDatabase db, String table, String[] projection,
+                              String selection, String[] selectionArgs, String sortOrder,
+                              String limit) {
+        String sql = SQLiteQueryBuilder.buildQueryString(false, table, projection, selection,
+                null, null, sortOrder, limit);
+        return rawQuery(db, sql, selectionArgs);
+    }
+
+    // Runs a query on the database, and keeps its SQL for the slow query log
+    private Cursor rawQuery(SQLiteDatabase db, String sql, String[] selectionArgs) {
+        mMetrics.setStatement(sql, selectionArgs);
+        return db.rawQuery(sql, selectionArgs);
+    }
+
+    /**
+     * This method returns one page of pets using keyset pagination, i.e.
+     * WHERE _id > afterId ORDER BY _id LIMIT limit. The pages are always ordered by _ID, so any
+     * sort order of the caller is ignored
+     * @param db is the readable database
+     * @param uri is the pets URI with the page query parameters
+     * @param projection is the list of columns to return
+     * @param selection is an additional filter on the pets table
+     * @param selectionArgs are the arguments of the selection
+     * @param limit is the maximum number of pets in the page
+     * @return a cursor with the pets of the page
+     */
+    private Cursor queryPage(SQLiteDatabase db, Uri uri, String[] projection, String selection,
+                             String[] selectionArgs, String limit) {
+
+        // The page starts after the given _ID or at the beginning of the table. Parsing the
+        // parameters throws an IllegalArgumentException if they are not numbers
+        String afterId = uri.getQueryParameter(QUERY_PARAMETER_AFTER_ID);
+        afterId = String.valueOf(afterId == null ? 0 : Long.parseLong(afterId));
+        limit = String.valueOf(Integer.parseInt(limit));
+
+        // Add the key of the page to the selection
+        String pageSelection = PetEntry._ID + ">?";
+        if(selection != null && selection.length() != 0){
+            pageSelection = "(" + selection + ") AND " + pageSelection;
+        }
+        int numSelectionArgs = selectionArgs == null ? 0 : selectionArgs.length;
+        String[] pageSelectionArgs = new String[numSelectionArgs + 1];
+        if(numSelectionArgs > 0){
+            System.arraycopy(selectionArgs, 0, pageSelectionArgs, 0, numSelectionArgs);
+        }
+        pageSelectionArgs[numSelectionArgs] = afterId;
+
+        return queryTable(db, PetEntry.VIEW_NAME,
+                projection,
+                pageSelection,
+                pageSelectionArgs,
+                PetEntry._ID,
+                limit);
+    }
+
+    /**
+     * This method converts a selection of a client, which may use the breed name, to a
+     * selection on the pets table, which only has the _ID of the breed. The selected pets are
+     * looked up in the view, so the deleted pets are never selected
+     * @param selection is a filter on the columns of the contract, or null for all the pets
+     * @return the filter on the pets table
+     */
+    private static String toTableSelection(String selection) {
+        if(selection == null || selection.length() == 0){
+            return PetDbHelper.LIVE_SELECTION;
+        }
+        return PetEntry._ID + " IN (SELECT " + PetEntry._ID + " FROM " + PetEntry.VIEW_NAME
+                + " WHERE (" + selection + "))";
+    }
+
+    /**
+     * This method returns the count and the average, minimum and maximum weight of the pets,
+     * either of all of them or of every gender or breed. Without a selection the statistics are
+     * read from the summary table, which the triggers keep up to date, so the pets table is not
+     * scanned. With a selection they are aggregated from the selected pets
+     * @param db is the readable database
+     * @param groupBy is null, PetEntry.COLUMN_GENDER or PetEntry.COLUMN_BREED
+     * @param projection is the list of columns to return, or null for all columns
+     * @param selection is a filter on the pets table, or null for all the pets
+     * @param selectionArgs are the arguments of the selection
+     * @param sortOrder is the order of the groups, by default the order of the grouped column
+     * @return a cursor with one row for every group
+     */
+    private Cursor queryStats(SQLiteDatabase db, String groupBy, String[] projection,
+                              String selection, String[] selectionArgs, String sortOrder) {
+
+        if(groupBy != null && !groupBy.equals(PetEntry.COLUMN_GENDER)
+                && !groupBy.equals(PetEntry.COLUMN_BREED)){
+            throw new IllegalArgumentException("Cannot group the pets by " + groupBy);
+        }
+
+        StringBuilder sql = new StringBuilder("SELECT ");
+        if(selection == null || selection.length() == 0){
+
+            // Read the rows of the group from the summary table. The group of all the pets is
+            // summed up, so an empty table has one row with a count of zero like COUNT(*)
+            final String group = groupBy == null ? StatsEntry.GROUP_ALL : groupBy;
+            if(groupBy == null){
+                sql.append("IFNULL(SUM(").append(StatsEntry.COLUMN_COUNT).append("), 0) AS ")
+                        .append(StatsEntry.COLUMN_COUNT).append(", ")
+                        .append("SUM(").append(StatsEntry.COLUMN_WEIGHT_SUM).append(") * 1.0 / SUM(")
+                        .append(StatsEntry.COLUMN_COUNT).append(") AS ")
+                        .append(StatsEntry.COLUMN_AVERAGE_WEIGHT).append(", ")
+                        .append("MIN(").append(StatsEntry.COLUMN_MIN_WEIGHT).append(") AS ")
+                        .append(StatsEntry.COLUMN_MIN_WEIGHT).append(", ")
+                        .append("MAX(").append(StatsEntry.COLUMN_MAX_WEIGHT).append(") AS ")
+                        .append(StatsEntry.COLUMN_MAX_WEIGHT);
+            } else {
+
+                // The breed groups are kept by the _ID of the breed, which is resolved to its
+                // name here
+                String groupValue = StatsEntry.COLUMN_GROUP_VALUE;
+                if(groupBy.equals(PetEntry.COLUMN_BREED)){
+                    groupValue = "(SELECT " + BreedEntry.COLUMN_NAME + " FROM "
+                            + BreedEntry.TABLE_NAME + " WHERE " + BreedEntry._ID + " = "
+                            + StatsEntry.COLUMN_GROUP_VALUE + ")";
+                }
+                sql.append(groupValue).append(" AS ").append(groupBy).append(", ")
+                        .append(StatsEntry.COLUMN_COUNT).append(", ")
+                        .append(StatsEntry.COLUMN_WEIGHT_SUM).append(" * 1.0 / ")
+                        .append(StatsEntry.COLUMN_COUNT).append(" AS ")
+                        .append(StatsEntry.COLUMN_AVERAGE_WEIGHT).append(", ")
+                        .append(StatsEntry.COLUMN_MIN_WEIGHT).append(", ")
+                        .append(StatsEntry.COLUMN_MAX_WEIGHT);
+            }
+            sql.append(" FROM ").append(StatsEntry.TABLE_NAME)
+                    .append(" WHERE ").append(StatsEntry.COLUMN_GROUP_BY).append(" = '")
+                    .append(group).append("'");
+            selectionArgs = null;
+        } else {
+
+            // Aggregate the selected pets
+            if(groupBy != null){
+                sql.append(groupBy).append(", ");
+            }
+            sql.append("COUNT(*) AS ").append(StatsEntry.COLUMN_COUNT).append(", ")
+                    .append("AVG(").append(PetEntry.COLUMN_WEIGHT).append(") AS ")
+                    .append(StatsEntry.COLUMN_AVERAGE_WEIGHT).append(", ")
+                    .append("MIN(").append(PetEntry.COLUMN_WEIGHT).append(") AS ")
+                    .append(StatsEntry.COLUMN_MIN_WEIGHT).append(", ")
+                    .append("MAX(").append(PetEntry.COLUMN_WEIGHT).append(") AS ")
+                    .append(StatsEntry.COLUMN_MAX_WEIGHT)
+                    .append(" FROM ").append(PetEntry.VIEW_NAME)
+                    .append(" WHERE (").append(selection).append(")");
+            if(groupBy != null){
+                sql.append(" GROUP BY ").append(groupBy);
+            }
+        }
+
+        // Select the requested columns of the groups in the requested order
+        if(projection != null){
+            StringBuilder columns = new StringBuilder();
+            for(int i = 0; i < projection.length; i++){
+                if(i > 0){
+                    columns.append(", ");
+                }
+                columns.append(projection[i]);
+            }
+            sql.insert(0, "SELECT " + columns + " FROM (").append(")");
+        }
+        if(sortOrder != null && sortOrder.length() != 0){
+            sql.append(" ORDER BY ").append(sortOrder);
+        } else if(groupBy != null){
+            sql.append(" ORDER BY ").append(groupBy);
+        }
+
+        return rawQuery(db, sql.toString(), selectionArgs);
+    }
+
+    /**
+     * This method returns the OpenableColumns of the exported file, which the apps that
+     * receive the export URI use to name the file
+     * @param uri is the export URI
+     * @param projection is the list of OpenableColumns to return, or null for all of them
+     * @return a cursor with one row
+     */
+    private static Cursor queryExportFile(Uri uri, String[] projection) {
+
+        if(projection == null){
+            projection = new String[]{ OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE };
+        }
+
+        // The size is not known before the file is written
+        Object[] values = new Object[projection.length];
+        for(int i = 0; i < projection.length; i++){
+            if(OpenableColumns.DISPLAY_NAME.equals(projection[i])){
+                values[i] = PetEntry.TABLE_NAME + "." + getExportFormat(uri);
+            }
+        }
+
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        cursor.addRow(values);
+        return cursor;
+    }
+
+    // Returns the format of an export URI, which is CSV by default
+    private static String getExportFormat(Uri uri) {
+        String format = uri.getQueryParameter(QUERY_PARAMETER_FORMAT);
+        return format == null ? FORMAT_CSV : format;
+    }
+
+    /**
+     * This method opens the export URI as a pipe. The pets are written into the pipe on a
+     * background thread while the caller reads from it, so the export is never held in memory
+     * or in a temporary file
+     * @param uri is the export URI
+     * @param mode must be "r"
+     * @return the reading end of the pipe
+     * @throws FileNotFoundException if the URI is not the export URI or the mode is not "r"
+     */
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode)
+            throws FileNotFoundException {
+
+        if(sUriMatcher.match(uri) != PET_EXPORT || !"r".equals(mode)){
+            throw new FileNotFoundException("Cannot open " + uri + " in mode " + mode);
+        }
+
+        final String format = getExportFormat(uri);
+        if(!FORMAT_CSV.equals(format) && !FORMAT_NDJSON.equals(format)){
+            throw new FileNotFoundException("Unknown export format " + format);
+        }
+
+        return openPipeHelper(uri, PetExporter.getMimeType(format), null, format,
+                new PipeDataWriter<String>() {
+                    @Override
+                    public void writeDataToPipe(@NonNull ParcelFileDescriptor output,
+                                                @NonNull Uri uri, @NonNull String mimeType,
+                                                @Nullable Bundle opts, @Nullable String format) {
+                        // The pipe is closed by openPipeHelper when this method returns
+                        FileOutputStream outputStream =
+                                new FileOutputStream(output.getFileDescriptor());
+                        try {
+                            new PetExporter(getContext().getContentResolver())
+                                    .exportPets(outputStream, format, null);
+                        } catch (IOException e) {
+                            // The reader has closed its end of the pipe
+                            Log.w(LOG_TAG, "Export of " + uri + " stopped", e);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * This method searches the pets whose name or breed contain words starting with the words
+     * of the query. The results are ranked by the number of matched words
+     * @param db is the readable database
+     * @param query is the text the user searched for
+     * @param projection is the list of columns to return
+     * @param selection is an additional filter on the pets table
+     * @param selectionArgs are the arguments of the selection
+     * @param sortOrder is the order of the results, by default the best matches come first
+     * @return a cursor with the matching pets
+     */
+    private Cursor searchPets(SQLiteDatabase db, String query, String[] projection,
+                              String selection, String[] selectionArgs, String sortOrder) {
+
+        // If there is no word to search for then return an empty cursor
+        String matchExpression = buildMatchExpression(query);
+        if(matchExpression == null){
+            return new MatrixCursor(projection != null ? projection : PetEntry.PROJECTION_ALL);
+        }
+
+        // Build the list of columns which are returned
+        StringBuilder columns = new StringBuilder();
+        if(projection == null){
+            columns.append(PetEntry.VIEW_NAME).append(".*");
+        } else {
+            for(int i = 0; i < projection.length; i++){
+                if(i > 0){
+                    columns.append(", ");
+                }
+                columns.append(projection[i]);
+            }
+        }
+
+        // offsets() returns four integers for every matched word, so the number of matches is
+        // the number of integers divided by four
+        final String offsets = "offsets(" + PetEntry.SEARCH_TABLE_NAME + ")";
+        final String rank = "(length(" + offsets + ") - length(replace(" + offsets
+                + ", ' ', '')) + 1) / 4";
+
+        StringBuilder sql = new StringBuilder()
+                .append("SELECT ").append(columns)
+                .append(" FROM ").append(PetEntry.VIEW_NAME)
+                .append(" JOIN (SELECT docid, ").append(rank).append(" AS ").append(SEARCH_RANK)
+                .append(" FROM ").append(PetEntry.SEARCH_TABLE_NAME)
+                .append(" WHERE ").append(PetEntry.SEARCH_TABLE_NAME).append(" MATCH ?) AS matches")
+                .append(" ON ").append(PetEntry.VIEW_NAME).append(".").append(PetEntry._ID)
+                .append(" = matches.docid");
+        if(selection != null && selection.length() != 0){
+            sql.append(" WHERE (").append(selection).append(")");
+        }
+        sql.append(" ORDER BY ");
+        if(sortOrder != null && sortOrder.length() != 0){
+            sql.append(sortOrder);
+        } else {
+            sql.append(SEARCH_RANK).append(" DESC, ")
+                    .append(PetEntry.VIEW_NAME).append(".").append(PetEntry.COLUMN_NAME);
+        }
+
+        // The match expression is the first argument, followed by the selection arguments
+        int numSelectionArgs = selectionArgs == null ? 0 : selectionArgs.length;
+        String[] args = new String[numSelectionArgs + 1];
+        args[0] = matchExpression;
+        if(numSelectionArgs > 0){
+            System.arraycopy(selectionArgs, 0, args, 1, numSelectionArgs);
+        }
+
+        return rawQuery(db, sql.toString(), args);
+    }
+
+    /**
+     * This method turns the text the user searched for into an FTS match expression in which
+     * every word is a prefix, e.g. "golden ret" becomes "golden* ret*". All the characters
+     * which are not letters or digits are dropped so they cannot break the FTS syntax
+     * @param query is the text the user searched for
+     * @return the match expression, or null if the query has no words
+     */
+    private static String buildMatchExpression(String query) {
+
+        if(query == null){
+            return null;
+        }
+
+        StringBuilder expression = new StringBuilder();
+        for(String word : query.split("[^\\p{L}\\p{N}]+")){
+            if(word.length() == 0){
+                continue;
+            }
+            if(expression.length() > 0){
+                expression.append(' ');
+            }
+            expression.append(word).append('*');
+        }
+
+        return expression.length() == 0 ? null : expression.toString();
+    }
+
     // Overridden method which helps the content provider to access the getType method of the
     // database
     @Nullable
@@ -137,6 +815,18 @@ public class PetProvider extends ContentProvider{
             case PET_ID:
                 return PetEntry.CONTENT_ITEM_TYPE;
 
+            // If the URI matches with the search URI then...
+            case PET_SEARCH:
+                return PetEntry.CONTENT_LIST_TYPE;
+
+            // If the URI matches with the stats URI then...
+            case PET_STATS:
+                return StatsEntry.CONTENT_TYPE;
+
+            // If the URI matches with the export URI then return the type of the file
+            case PET_EXPORT:
+                return PetExporter.getMimeType(getExportFormat(uri));
+
             // Otherwise throw an exception
             default:
                 throw new IllegalArgumentException("Unknown uri " + uri.toString());
@@ -148,6 +838,9 @@ public class PetProvider extends ContentProvider{
     @Override
     public Uri insert(@NonNull Uri uri, @Nullable ContentValues contentValues) {
 
+        // Start measuring the insertion
+        long start = mMetrics.start();
+
         // Match the provided URI with the original URIs
         final int match = sUriMatcher.match(uri);
         
@@ -155,7 +848,10 @@ public class PetProvider extends ContentProvider{
 
             // If the URI matches with the WHOLE TABLE URI then insert the data
             case PETS:
-                return insertPet(uri, contentValues);
+                Uri newUri = insertPet(uri, contentValues);
+                mMetrics.record(METRIC_INSERT, MATCH_NAMES[match - PETS], start,
+                        newUri == null ? 0 : 1);
+                return newUri;
 
             // Otherwise throw UnsupportedOperationException
             default:
@@ -173,17 +869,34 @@ public class PetProvider extends ContentProvider{
      */
     private Uri insertPet(Uri uri, ContentValues contentValues) {
 
-        // Check if the data is valid
-        if(isDataValid(contentValues) == INVALID_DATA){
+        // Check if the data is valid. The caller shows the errors to the user, so they are only
+        // logged here
+        int errors = PetValidator.validate(contentValues, true);
+        if(errors != PetValidator.VALID){
+            Log.w(LOG_TAG, "Invalid pet, errors " + errors + ": " + uri.toString());
             return null;
         }
 
         // Get writeable database with the help from our database helper
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
 
+        // The generation of the row cache from before the pet is inserted
+        long cacheGeneration = mCache.getGeneration();
+
         // Insert the data contained in the content values to the database and return the new
-        // row's id
-        long id = db.insert(PetEntry.TABLE_NAME, null, contentValues);
+        // row's id. A pet with exactly the usual columns goes through the prepared statement
+        long id;
+        if(PetStatements.hasAllColumns(contentValues)){
+            try {
+                id = mStatements.get().insert(contentValues);
+            } catch (SQLException e){
+                Log.e(LOG_TAG, "Error inserting " + contentValues, e);
+                id = -1;
+            }
+        } else {
+            id = db.insert(PetEntry.TABLE_NAME, null,
+                    mStatements.get().toTableValues(contentValues));
+        }
 
         // If the insertion action failed then log an error message
         if(id == -1){
@@ -191,36 +904,226 @@ public class PetProvider extends ContentProvider{
             return null;
         }
 
-        // Notify the database of some changes
-        getContext().getContentResolver().notifyChange(uri, null);
+        // The new pet is likely to be opened next, so keep it in the cache. In a batch it is
+        // not committed yet, so it is cached by applyBatch() after the commit
+        Map<Long, ContentValues> insertedPets = mBatchInsertedPets.get();
+        if(insertedPets != null){
+            insertedPets.put(id, contentValues);
+        } else {
+            cachePet(id, contentValues, cacheGeneration);
+        }
+
+        // Notify the observers of the new row
+        notifyChange(PetEntry.buildChangeUri(id, OPERATION_INSERT));
+        mCompactor.onWrite(false);
 
         // Return the uri of the new valid row of the database
         return ContentUris.withAppendedId(uri, id);
     }
 
+    // Overriden method which inserts many pets at once. The default implementation calls insert()
+    // for every row, which means one transaction and one change notification per pet
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+
+        // Start measuring the insertion
+        long start = mMetrics.start();
+
+        // Match the provided URI with the original URIs
+        final int match = sUriMatcher.match(uri);
+
+        switch (match){
+
+            // If the URI matches with the WHOLE TABLE URI then insert all the rows
+            case PETS:
+                int rowsInserted = bulkInsertPets(uri, values);
+                mMetrics.record(METRIC_BULK_INSERT, MATCH_NAMES[match - PETS], start,
+                        rowsInserted);
+                return rowsInserted;
+
+            // Otherwise throw UnsupportedOperationException
+            default:
+                throw new UnsupportedOperationException("Unknown uri " + uri.toString());
+        }
+    }
+
     /**
-     * This method checks the validity of the data contained in contentValues
-     * @param contentValues is a content values instance which contains the data which needs to be
-     *                      checked
-     * @return a constant integer code (VALID_DATA or INVALID_DATA)
+     * This method inserts all the given pets inside one database transaction, reusing a single
+     * prepared statement for every row
+     * @param uri is the specific URI which is directed to the whole table
+     * @param values is an array of ContentValues instances, one for every pet
+     * @return the number of rows which were inserted
      */
-    private int isDataValid(ContentValues contentValues) {
+    private int bulkInsertPets(Uri uri, ContentValues[] values) {
+
+        // Get writeable database with the help from our database helper
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        // Number of successfully inserted rows
+        int rowsInserted = 0;
+
+        // Validate the whole batch before the transaction is started
+        int[] errors = new int[values.length];
+        int invalidRows = PetValidator.validateBatch(values, true, errors);
+        if(invalidRows > 0){
+            Log.w(LOG_TAG, "Skipping " + invalidRows + " invalid pets in bulk: " + uri.toString());
+        }
+
+        // The prepared insert statement of this thread is reused for every row
+        PetStatements statements = mStatements.get();
+
+        db.beginTransaction();
+        try {
+            for(int i = 0; i < values.length; i++){
+
+                // Skip the rows which are not valid
+                if(errors[i] != PetValidator.VALID){
+                    continue;
+                }
 
-        if(contentValues.containsKey(PetEntry.COLUMN_NAME)){
-            String value = contentValues.getAsString(PetEntry.COLUMN_NAME);
-            if(value == null || value.length() == 0){
-                Toast.makeText(getContext(), R.string.no_name, Toast.LENGTH_SHORT).show();
-                return INVALID_DATA;
+                // A row which still breaks a constraint is skipped, the same way insert()
+                // returns null for it
+                try {
+                    if(statements.insert(values[i]) != -1){
+                        rowsInserted++;
+                    }
+                } catch (SQLiteConstraintException e){
+                    Log.e(LOG_TAG, "Failed to insert a pet in bulk: " + uri.toString(), e);
+                }
             }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        // Notify the database of the changes only once for the whole batch
+        if(rowsInserted > 0){
+            notifyChange(uri);
+            mCompactor.onWrite(false);
         }
 
-        return VALID_DATA;
+        return rowsInserted;
+    }
+
+    // Overriden method which applies a whole batch of operations inside one database transaction.
+    // The default implementation runs every operation in its own transaction and sends one
+    // change notification for every row
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+
+        // Get writeable database with the help from our database helper
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        // Start collecting the change notifications and the inserted pets of this batch
+        Set<Uri> changedUris = new LinkedHashSet<>();
+        mBatchChangedUris.set(changedUris);
+        Map<Long, ContentValues> insertedPets = new LinkedHashMap<>();
+        mBatchInsertedPets.set(insertedPets);
+
+        // The generation of the row cache from before the batch. Any other change of the pets
+        // during the batch, including its own updates and deletes, keeps the inserted pets out
+        // of the cache
+        long cacheGeneration = mCache.getGeneration();
+
+        boolean committed = false;
+        db.beginTransaction();
+        try {
+            final int numOperations = operations.size();
+            final ContentProviderResult[] results = new ContentProviderResult[numOperations];
+            for(int i = 0; i < numOperations; i++){
+
+                ContentProviderOperation operation = operations.get(i);
+
+                // Let other threads use the database in long batches, either when the operation
+                // allows it or after every BATCH_YIELD_INTERVAL operations
+                if(i > 0 && (operation.isYieldAllowed() || i % BATCH_YIELD_INTERVAL == 0)){
+                    db.yieldIfContendedSafely();
+                }
+
+                results[i] = operation.apply(this, results, i);
+            }
+            db.setTransactionSuccessful();
+            committed = true;
+            return results;
+        } finally {
+            db.endTransaction();
+            mBatchChangedUris.remove();
+            mBatchInsertedPets.remove();
+
+            // Now that the inserted pets are committed they can be cached
+            if(committed){
+                for(Map.Entry<Long, ContentValues> pet : insertedPets.entrySet()){
+                    cachePet(pet.getKey(), pet.getValue(), cacheGeneration);
+                }
+            }
+
+            // Other threads may have cached the old rows while the batch was not committed, so
+            // the changed pets are dropped from the cache again. An inserted pet had no old row
+            for(Uri changedUri : changedUris){
+                String operation = changedUri.getQueryParameter(QUERY_PARAMETER_OPERATION);
+                if(OPERATION_INSERT.equals(operation)){
+                    continue;
+                }
+                if(operation != null){
+                    mCache.invalidate(ContentUris.parseId(changedUri));
+                } else {
+                    mCache.invalidateAll();
+                }
+            }
+
+            // Send a single notification for every distinct URI which was changed, or a single
+            // table-wide notification if too many rows changed. The parts of the batch before a
+            // yield are already committed, so the notifications are sent even if the rest of
+            // the batch failed
+            if(changedUris.size() > MAX_BATCH_ROW_NOTIFICATIONS){
+                getContext().getContentResolver().notifyChange(PetEntry.CONTENT_URI, null);
+            } else {
+                for(Uri changedUri : changedUris){
+                    getContext().getContentResolver().notifyChange(changedUri, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * This method puts a newly inserted pet into the cache
+     * @param id is the _ID of the new pet
+     * @param contentValues is the data the pet was inserted with
+     * @param cacheGeneration is the generation of the cache from before the pet was inserted
+     */
+    private void cachePet(long id, ContentValues contentValues, long cacheGeneration) {
+        mCache.putRow(id,
+                contentValues.getAsString(PetEntry.COLUMN_NAME),
+                contentValues.getAsString(PetEntry.COLUMN_BREED),
+                contentValues.getAsLong(PetEntry.COLUMN_GENDER),
+                contentValues.getAsLong(PetEntry.COLUMN_WEIGHT),
+                cacheGeneration);
+    }
+
+    /**
+     * This method notifies the observers of the given URI. If a batch is running on the current
+     * thread, the notification is postponed until the batch is committed
+     * @param uri is the URI which has changed
+     */
+    private void notifyChange(Uri uri) {
+
+        Set<Uri> changedUris = mBatchChangedUris.get();
+        if(changedUris != null){
+            changedUris.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
     }
 
     // Overriden method which helps the ContentProvider to access the delete method in the database
     @Override
     public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
 
+        // Start measuring the deletion
+        long start = mMetrics.start();
+
         // Get writable database
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
 
@@ -230,32 +1133,45 @@ public class PetProvider extends ContentProvider{
         int rowsDeleted;
         switch (match){
 
-            // If the query should be on the whole table then...
+            // If the query should be on the whole table then mark the selected pets as deleted,
+            // the compactor purges them later
             case PETS:
-                rowsDeleted = db.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
-                // If some rows are deleted then notify the database
+                ContentValues tombstone = new ContentValues(1);
+                tombstone.put(PetEntry.COLUMN_DELETED, 1);
+                rowsDeleted = db.update(PetEntry.TABLE_NAME, tombstone,
+                        toTableSelection(selection), selectionArgs);
+                // If some rows are deleted then drop the cached pets and notify the database
                 if(rowsDeleted > 0){
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    mCache.invalidateAll();
+                    notifyChange(uri);
                 }
-                return rowsDeleted;
+                break;
 
-            // If the query is directed to a row with a specific id then assign that id to the
-            // selection String and selectionArgs String array
+            // If the query is directed to a row with a specific id then mark it as deleted with
+            // the prepared statement
             case PET_ID:
 
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[]{ String.valueOf(ContentUris.parseId(uri)) };
-                rowsDeleted = db.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
-                // If some rows are deleted then notify the database
+                long id = ContentUris.parseId(uri);
+                rowsDeleted = mStatements.get().deleteById(id);
+                // If the row is deleted then drop it from the cache and notify the observers of
+                // that row
                 if(rowsDeleted > 0){
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    mCache.invalidate(id);
+                    notifyChange(PetEntry.buildChangeUri(id, OPERATION_DELETE));
                 }
-                return rowsDeleted;
+                break;
 
             default:
                 // Otherwise throw an exception
                 throw new UnsupportedOperationException("Unknown uri: " + uri.toString());
         }
+
+        if(rowsDeleted > 0){
+            mCompactor.onWrite(true);
+        }
+
+        mMetrics.record(METRIC_DELETE, MATCH_NAMES[match - PETS], start, rowsDeleted);
+        return rowsDeleted;
     }
 
     // Overriden method which helps the ContentProvider to access the update method in the database
@@ -263,60 +1179,89 @@ public class PetProvider extends ContentProvider{
     public int update(@NonNull Uri uri, @Nullable ContentValues contentValues,
                       @Nullable String selection, @Nullable String[] selectionArgs) {
 
+        // Start measuring the update
+        long start = mMetrics.start();
 
         // Match the URI with the originals
         final int match = sUriMatcher.match(uri);
 
+        int rowsUpdated;
         switch (match){
 
             // If the update is directed to the whole table then...
             case PETS:
-                return updatePet(uri, contentValues, selection, selectionArgs);
+                rowsUpdated = updatePet(uri, contentValues, selection, selectionArgs, NO_ID);
+                if(rowsUpdated > 0){
+                    mCache.invalidateAll();
+                }
+                break;
 
-            // If the update is directed to specific rows in the table then apply those
-            // specifications to the selection String and selectionArgs String array
+            // If the update is directed to a specific row in the table then update it by its
+            // id. The observers are notified of the change of that single row
             case PET_ID:
 
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[]{ String.valueOf(ContentUris.parseId(uri)) };
-                return updatePet(uri, contentValues, selection, selectionArgs);
+                long id = ContentUris.parseId(uri);
+                rowsUpdated = updatePet(PetEntry.buildChangeUri(id, OPERATION_UPDATE),
+                        contentValues, null, null, id);
+                if(rowsUpdated > 0){
+                    mCache.invalidate(id);
+                }
+                break;
 
             default:
                 // Otherwise throw an exception
                 throw new UnsupportedOperationException("Unknown uri " + uri.toString());
         }
+
+        mMetrics.record(METRIC_UPDATE, MATCH_NAMES[match - PETS], start,
+                Math.max(0, rowsUpdated));
+        return rowsUpdated;
     }
 
 
     /**
      * This method checks the data validity, gets link from the database and inserts the
      * data
-     * @param uri is the URI of the whole table or specific row or rows
+     * @param uri is the URI which is notified of the change
      * @param contentValues is the data
      * @param selection specification
      * @param selectionArgs specification arguments
+     * @param id is the id of the row which is updated, or NO_ID to update the selected rows
      * @return the number of rows which are affected
      */
-    private int updatePet(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+    private int updatePet(Uri uri, ContentValues contentValues, String selection,
+                          String[] selectionArgs, long id) {
 
         // Return argument
         int retArg;
 
         // If the data is not valid return INVALID_DATA code
-        // Otherwise, get link from the database, update it and then toast the number of rows
-        // affected
-        if(isDataValid(contentValues) == INVALID_DATA){
+        // Otherwise, get link from the database and update it
+        if(PetValidator.validate(contentValues, false) != PetValidator.VALID){
             retArg = INVALID_DATA;
         } else {
 
             SQLiteDatabase db = mDbHelper.getWritableDatabase();
 
-            retArg = db.update(PetEntry.TABLE_NAME, contentValues, selection, selectionArgs);
+            if(id == NO_ID){
+                retArg = db.update(PetEntry.TABLE_NAME,
+                        mStatements.get().toTableValues(contentValues),
+                        toTableSelection(selection), selectionArgs);
+            } else if(PetStatements.hasAllColumns(contentValues)){
+                // A pet with exactly the usual columns goes through the prepared statement
+                retArg = mStatements.get().updateById(id, contentValues);
+            } else {
+                retArg = db.update(PetEntry.TABLE_NAME,
+                        mStatements.get().toTableValues(contentValues),
+                        PetEntry._ID + "=? AND " + PetDbHelper.LIVE_SELECTION,
+                        new String[]{ String.valueOf(id) });
+            }
         }
 
         // If some rows are updated then notify the database
         if(retArg > 0){
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
+            mCompactor.onWrite(false);
         }
 
         // Return the number of rows affected or return INVALID_DATA
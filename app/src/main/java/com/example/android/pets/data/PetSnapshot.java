@@ -0,0 +1,383 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import static com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * This class writes the pets table to a compact binary snapshot file and restores it again.
+ * The file is columnar, every column of all the pets is stored in one block:
+ *
+ * header:     magic, version, number of pets, number of dictionary strings (4 bytes each)
+ * dictionary: every distinct name and breed once, as a varint byte length and UTF-8 bytes
+ * _ID:        varint difference to the previous _ID, which is 1 byte for a dense table
+ * name:       index into the dictionary, 1, 2 or 4 bytes depending on the dictionary size
+ * breed:      index into the dictionary, same width as the name
+ * gender:     2 bits, 4 pets per byte
+ * weight:     2 bytes
+ *
+ * Both ways the file is accessed through a MappedByteBuffer, and a restore replaces the pets
+ * with one compiled statement in one transaction, instead of one PetProvider insert per pet.
+ */
+final class PetSnapshot {
+
+    // "PETS" in ASCII, the first 4 bytes of every snapshot
+    private static final int MAGIC = 0x50455453;
+    // Version of the file format
+    private static final int FORMAT_VERSION = 1;
+    // Size of the header in bytes
+    private static final int HEADER_SIZE = 16;
+
+    // Largest value which can be stored in a packed column
+    private static final int MAX_PACKED_GENDER = 3;
+    private static final int MAX_PACKED_WEIGHT = 0xFFFF;
+
+    // Encoding of the dictionary strings
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // SQL command which restores a pet with its _ID
+    private static final String SQL_RESTORE = "INSERT INTO " + PetEntry.TABLE_NAME + " ("
+            + PetEntry._ID + ", "
+            + PetEntry.COLUMN_NAME + ", "
+            + PetEntry.COLUMN_BREED_ID + ", "
+            + PetEntry.COLUMN_GENDER + ", "
+            + PetEntry.COLUMN_WEIGHT + ") VALUES (?, ?, ?, ?, ?)";
+
+    // Private constructor so there cannot be any instance from this class
+    private PetSnapshot(){
+
+    }
+
+    /**
+     * This method writes all the pets to a snapshot file. The pets are read in one transaction,
+     * so the snapshot is consistent even if other threads write at the same time
+     * @param db is the database
+     * @param file is the snapshot file, which is replaced if it exists
+     * @return the number of pets in the snapshot
+     * @throws IOException if the file cannot be written, or a gender or weight does not fit
+     * into its packed column
+     */
+    static int write(SQLiteDatabase db, File file) throws IOException {
+
+        int rows;
+        long[] ids;
+        int[] names;
+        int[] breeds;
+        byte[] genders;
+        int[] weights;
+        ArrayList<byte[]> dictionary = new ArrayList<>();
+        long dictionaryBytes = 0;
+        long idBytes = 0;
+
+        // Read the table into its columns. The pets are counted from the view like they are
+        // read, so the deleted pets are in neither
+        db.beginTransactionNonExclusive();
+        try {
+            rows = (int) DatabaseUtils.queryNumEntries(db, PetEntry.VIEW_NAME);
+            ids = new long[rows];
+            names = new int[rows];
+            breeds = new int[rows];
+            genders = new byte[(rows + 3) / 4];
+            weights = new int[rows];
+
+            HashMap<String, Integer> indexes = new HashMap<>();
+            Cursor cursor = db.query(PetEntry.VIEW_NAME, PetEntry.PROJECTION_ALL,
+                    null, null, null, null, PetEntry._ID);
+            try {
+                if(cursor.getCount() != rows){
+                    throw new IOException("Counted " + rows + " pets but read "
+                            + cursor.getCount());
+                }
+
+                long previousId = 0;
+                for(int row = 0; cursor.moveToNext(); row++){
+
+                    ids[row] = cursor.getLong(0);
+                    idBytes += varintSize(ids[row] - previousId);
+                    previousId = ids[row];
+
+                    for(int column = 1; column <= 2; column++){
+                        String value = cursor.getString(column);
+                        Integer index = indexes.get(value);
+                        if(index == null){
+                            byte[] bytes = value.getBytes(UTF_8);
+                            index = dictionary.size();
+                            indexes.put(value, index);
+                            dictionary.add(bytes);
+                            dictionaryBytes += varintSize(bytes.length) + bytes.length;
+                        }
+                        if(column == 1){
+                            names[row] = index;
+                        } else {
+                            breeds[row] = index;
+                        }
+                    }
+
+                    long gender = cursor.getLong(3);
+                    long weight = cursor.getLong(4);
+                    if(gender < 0 || gender > MAX_PACKED_GENDER
+                            || weight < 0 || weight > MAX_PACKED_WEIGHT){
+                        throw new IOException("Pet " + ids[row] + " cannot be packed");
+                    }
+                    genders[row / 4] |= gender << (row % 4 * 2);
+                    weights[row] = (int) weight;
+                }
+            } finally {
+                cursor.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        // Write the columns into the mapped file
+        int indexWidth = indexWidth(dictionary.size());
+        long size = HEADER_SIZE + dictionaryBytes + idBytes + 2L * rows * indexWidth
+                + genders.length + 2L * rows;
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(size);
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+            buffer.putInt(MAGIC);
+            buffer.putInt(FORMAT_VERSION);
+            buffer.putInt(rows);
+            buffer.putInt(dictionary.size());
+
+            for(byte[] bytes : dictionary){
+                putVarint(buffer, bytes.length);
+                buffer.put(bytes);
+            }
+
+            long previousId = 0;
+            for(int row = 0; row < rows; row++){
+                putVarint(buffer, ids[row] - previousId);
+                previousId = ids[row];
+            }
+            for(int row = 0; row < rows; row++){
+                putIndex(buffer, names[row], indexWidth);
+            }
+            for(int row = 0; row < rows; row++){
+                putIndex(buffer, breeds[row], indexWidth);
+            }
+            buffer.put(genders);
+            for(int row = 0; row < rows; row++){
+                buffer.putShort((short) weights[row]);
+            }
+
+            buffer.force();
+        } finally {
+            randomAccessFile.close();
+        }
+
+        return rows;
+    }
+
+    /**
+     * This method replaces all the pets with the pets of a snapshot file, in one transaction.
+     * If the file is not a valid snapshot the pets are left as they are
+     * @param db is the writable database
+     * @param file is the snapshot file
+     * @return the number of restored pets
+     * @throws IOException if the file cannot be read or is not a valid snapshot
+     */
+    static int restore(SQLiteDatabase db, File file) throws IOException {
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            try {
+                if(buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION){
+                    throw new IOException(file + " is not a pets snapshot");
+                }
+                int rows = buffer.getInt();
+                int dictionarySize = buffer.getInt();
+                if(rows < 0 || dictionarySize < 0 || dictionarySize > buffer.remaining()){
+                    throw new IOException(file + " is corrupt");
+                }
+
+                // Decode every string of the dictionary once
+                String[] dictionary = new String[dictionarySize];
+                for(int i = 0; i < dictionarySize; i++){
+                    int length = (int) getVarint(buffer);
+                    if(length < 0 || length > buffer.remaining()){
+                        throw new IOException(file + " is corrupt");
+                    }
+                    byte[] bytes = new byte[length];
+                    buffer.get(bytes);
+                    dictionary[i] = new String(bytes, UTF_8);
+                }
+
+                // Find the start of every column. The _ID column has variable length, so it is
+                // skipped once to find the columns after it
+                int indexWidth = indexWidth(dictionarySize);
+                int idStart = buffer.position();
+                for(int row = 0; row < rows; row++){
+                    getVarint(buffer);
+                }
+                int nameStart = buffer.position();
+                int breedStart = nameStart + rows * indexWidth;
+                int genderStart = breedStart + rows * indexWidth;
+                int weightStart = genderStart + (rows + 3) / 4;
+                if(weightStart + 2L * rows != buffer.limit()){
+                    throw new IOException(file + " is corrupt");
+                }
+
+                ByteBuffer idColumn = columnAt(buffer, idStart);
+                ByteBuffer nameColumn = columnAt(buffer, nameStart);
+                ByteBuffer breedColumn = columnAt(buffer, breedStart);
+                ByteBuffer weightColumn = columnAt(buffer, weightStart);
+
+                db.beginTransaction();
+                try {
+                    db.delete(PetEntry.TABLE_NAME, null, null);
+
+                    SQLiteStatement statement = db.compileStatement(SQL_RESTORE);
+                    SQLiteStatement selectBreedId =
+                            db.compileStatement(PetStatements.SQL_SELECT_BREED_ID);
+                    SQLiteStatement insertBreed =
+                            db.compileStatement(PetStatements.SQL_INSERT_BREED);
+                    try {
+                        // The _ID of the breed of every dictionary string, resolved the first
+                        // time a pet has the breed
+                        long[] breedIds = new long[dictionarySize];
+                        long id = 0;
+                        for(int row = 0; row < rows; row++){
+                            id += getVarint(idColumn);
+                            int name = getIndex(nameColumn, indexWidth);
+                            int breed = getIndex(breedColumn, indexWidth);
+                            if(name >= dictionarySize || breed >= dictionarySize){
+                                throw new IOException(file + " is corrupt");
+                            }
+                            int gender = buffer.get(genderStart + row / 4) >> (row % 4 * 2) & 3;
+
+                            statement.bindLong(1, id);
+                            statement.bindString(2, dictionary[name]);
+                            if(breedIds[breed] == 0){
+                                breedIds[breed] = getBreedId(selectBreedId, insertBreed,
+                                        dictionary[breed]);
+                            }
+                            statement.bindLong(3, breedIds[breed]);
+                            statement.bindLong(4, gender);
+                            statement.bindLong(5, weightColumn.getShort() & MAX_PACKED_WEIGHT);
+                            statement.executeInsert();
+                        }
+                    } finally {
+                        statement.close();
+                        selectBreedId.close();
+                        insertBreed.close();
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                return rows;
+            } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                throw new IOException(file + " is corrupt", e);
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    // Returns the _ID of a breed, and adds the breed if it is new
+    private static long getBreedId(SQLiteStatement selectBreedId, SQLiteStatement insertBreed,
+                                   String breed) {
+        selectBreedId.bindString(1, breed);
+        try {
+            return selectBreedId.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            insertBreed.bindString(1, breed);
+            return insertBreed.executeInsert();
+        }
+    }
+
+    // Returns a view of the buffer which starts at the given position
+    private static ByteBuffer columnAt(ByteBuffer buffer, int position) {
+        ByteBuffer column = buffer.duplicate();
+        column.position(position);
+        return column;
+    }
+
+    // Returns the number of bytes of a dictionary index
+    private static int indexWidth(int dictionarySize) {
+        if(dictionarySize <= 0x100){
+            return 1;
+        } else if(dictionarySize <= 0x10000){
+            return 2;
+        }
+        return 4;
+    }
+
+    // Writes a dictionary index with the given number of bytes
+    private static void putIndex(ByteBuffer buffer, int index, int width) {
+        if(width == 1){
+            buffer.put((byte) index);
+        } else if(width == 2){
+            buffer.putShort((short) index);
+        } else {
+            buffer.putInt(index);
+        }
+    }
+
+    // Reads a dictionary index with the given number of bytes
+    private static int getIndex(ByteBuffer buffer, int width) {
+        if(width == 1){
+            return buffer.get() & 0xFF;
+        } else if(width == 2){
+            return buffer.getShort() & 0xFFFF;
+        }
+        return buffer.getInt();
+    }
+
+    // Returns the number of bytes of a varint
+    private static int varintSize(long value) {
+        int size = 1;
+        while((value >>>= 7) != 0){
+            size++;
+        }
+        return size;
+    }
+
+    // Writes a value with 7 bits per byte, the high bit of a byte is set if more bytes follow
+    private static void putVarint(ByteBuffer buffer, long value) {
+        while((value & ~0x7FL) != 0){
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    // Reads a value which was written by putVarint()
+    private static long getVarint(ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7){
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0){
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,211 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import static com.example.android.pets.data.PetContract.BreedEntry;
+import static com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * This class holds the prepared statements of the PetProvider's hot write paths: inserting a
+ * pet with all its columns, updating all the columns of a pet by _ID and deleting a pet by
+ * _ID. A deleted pet is only marked as deleted, the PetCompactor purges it later.
+ * SQLiteDatabase.insert/update/delete build and compile their SQL again on every call and
+ * allocate a selectionArgs array for the _ID, these statements are compiled once and only
+ * rebound.
+ *
+ * The pets table stores the _ID of the breed, so the breed name of the content values is
+ * resolved to its _ID first, and added to the breeds table if it is new.
+ *
+ * A statement keeps its bound arguments, so an instance must only be used by one thread. The
+ * PetProvider keeps one instance per thread.
+ */
+class PetStatements {
+
+    // SQL command to insert a pet with all its columns
+    private static final String SQL_INSERT = "INSERT INTO " + PetEntry.TABLE_NAME + " ("
+            + PetEntry.COLUMN_NAME + ", "
+            + PetEntry.COLUMN_BREED_ID + ", "
+            + PetEntry.COLUMN_GENDER + ", "
+            + PetEntry.COLUMN_WEIGHT + ") VALUES (?, ?, ?, ?)";
+
+    // SQL command to update all the columns of a pet with the given _ID
+    private static final String SQL_UPDATE_BY_ID = "UPDATE " + PetEntry.TABLE_NAME + " SET "
+            + PetEntry.COLUMN_NAME + " = ?, "
+            + PetEntry.COLUMN_BREED_ID + " = ?, "
+            + PetEntry.COLUMN_GENDER + " = ?, "
+            + PetEntry.COLUMN_WEIGHT + " = ? WHERE "
+            + PetEntry._ID + " = ? AND " + PetDbHelper.LIVE_SELECTION;
+
+    // SQL command to mark the pet with the given _ID as deleted
+    private static final String SQL_DELETE_BY_ID = "UPDATE " + PetEntry.TABLE_NAME + " SET "
+            + PetEntry.COLUMN_DELETED + " = 1 WHERE "
+            + PetEntry._ID + " = ? AND " + PetDbHelper.LIVE_SELECTION;
+
+    // SQL command to find the _ID of a breed by its name
+    static final String SQL_SELECT_BREED_ID = "SELECT " + BreedEntry._ID + " FROM "
+            + BreedEntry.TABLE_NAME + " WHERE " + BreedEntry.COLUMN_NAME + " = ?";
+
+    // SQL command to add a new breed
+    static final String SQL_INSERT_BREED = "INSERT INTO " + BreedEntry.TABLE_NAME + " ("
+            + BreedEntry.COLUMN_NAME + ") VALUES (?)";
+
+    // Database helper which gives the database the statements are compiled on
+    private final PetDbHelper mDbHelper;
+
+    // The statements, compiled the first time they are used
+    private SQLiteStatement mInsert;
+    private SQLiteStatement mUpdateById;
+    private SQLiteStatement mDeleteById;
+    private SQLiteStatement mSelectBreedId;
+    private SQLiteStatement mInsertBreed;
+
+    /**
+     * Package-private constructor to create the statements of one thread
+     * @param dbHelper is the database helper
+     */
+    PetStatements(PetDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * This method checks if the content values have exactly the columns of a pet, so they can
+     * be written with the prepared statements
+     * @param contentValues is the data of a pet
+     * @return true if the content values have the name, breed, gender and weight and nothing else
+     */
+    static boolean hasAllColumns(ContentValues contentValues) {
+        return contentValues.size() == 4
+                && contentValues.containsKey(PetEntry.COLUMN_NAME)
+                && contentValues.containsKey(PetEntry.COLUMN_BREED)
+                && contentValues.containsKey(PetEntry.COLUMN_GENDER)
+                && contentValues.containsKey(PetEntry.COLUMN_WEIGHT);
+    }
+
+    /**
+     * This method inserts a pet with all its columns
+     * @param contentValues is the data of the pet
+     * @return the _ID of the new pet
+     */
+    long insert(ContentValues contentValues) {
+
+        if(mInsert == null){
+            mInsert = mDbHelper.getWritableDatabase().compileStatement(SQL_INSERT);
+        }
+
+        bindPet(mInsert, contentValues);
+        return mInsert.executeInsert();
+    }
+
+    /**
+     * This method updates all the columns of the pet with the given _ID
+     * @param id is the _ID of the pet
+     * @param contentValues is the new data of the pet
+     * @return the number of rows which are affected
+     */
+    int updateById(long id, ContentValues contentValues) {
+
+        if(mUpdateById == null){
+            mUpdateById = mDbHelper.getWritableDatabase().compileStatement(SQL_UPDATE_BY_ID);
+        }
+
+        bindPet(mUpdateById, contentValues);
+        mUpdateById.bindLong(5, id);
+        return mUpdateById.executeUpdateDelete();
+    }
+
+    /**
+     * This method marks the pet with the given _ID as deleted
+     * @param id is the _ID of the pet
+     * @return the number of rows which are deleted
+     */
+    int deleteById(long id) {
+
+        if(mDeleteById == null){
+            mDeleteById = mDbHelper.getWritableDatabase().compileStatement(SQL_DELETE_BY_ID);
+        }
+
+        mDeleteById.bindLong(1, id);
+        return mDeleteById.executeUpdateDelete();
+    }
+
+    /**
+     * This method returns the _ID of a breed, and adds the breed to the breeds table if it is
+     * not there yet. The _IDs are not cached, because the breed may be added in a transaction
+     * which is rolled back later
+     * @param breed is the name of the breed
+     * @return the _ID of the breed
+     */
+    long getBreedId(String breed) {
+
+        if(mSelectBreedId == null){
+            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            mSelectBreedId = db.compileStatement(SQL_SELECT_BREED_ID);
+            mInsertBreed = db.compileStatement(SQL_INSERT_BREED);
+        }
+
+        mSelectBreedId.bindString(1, breed);
+        try {
+            return mSelectBreedId.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            // The breed is new
+            mInsertBreed.bindString(1, breed);
+            return mInsertBreed.executeInsert();
+        }
+    }
+
+    /**
+     * This method converts the content values of a pet to the columns of the pets table, i.e.
+     * it replaces the breed name with the _ID of the breed. Only the name, breed, gender and
+     * weight are kept, so a client cannot set the breed _ID or any other internal column
+     * @param contentValues is the data of a pet with the columns of the contract
+     * @return the data with the columns of the pets table
+     */
+    ContentValues toTableValues(ContentValues contentValues) {
+
+        ContentValues tableValues = new ContentValues(contentValues);
+        for(String column : contentValues.keySet()){
+            if(!column.equals(PetEntry.COLUMN_NAME) && !column.equals(PetEntry.COLUMN_GENDER)
+                    && !column.equals(PetEntry.COLUMN_WEIGHT)){
+                tableValues.remove(column);
+            }
+        }
+
+        String breed = contentValues.getAsString(PetEntry.COLUMN_BREED);
+        if(breed != null){
+            tableValues.put(PetEntry.COLUMN_BREED_ID, getBreedId(breed));
+        }
+        return tableValues;
+    }
+
+    // Binds the name, breed, gender and weight to the first four arguments of the statement
+    private void bindPet(SQLiteStatement statement, ContentValues contentValues) {
+        String breed = contentValues.getAsString(PetEntry.COLUMN_BREED);
+        Long breedId = breed == null ? null : getBreedId(breed);
+        statement.clearBindings();
+        bindString(statement, 1, contentValues.getAsString(PetEntry.COLUMN_NAME));
+        bindLong(statement, 2, breedId);
+        bindLong(statement, 3, contentValues.getAsLong(PetEntry.COLUMN_GENDER));
+        bindLong(statement, 4, contentValues.getAsLong(PetEntry.COLUMN_WEIGHT));
+    }
+
+    // Helper method which binds a String or NULL to the given statement index
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if(value == null){
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    // Helper method which binds a long or NULL to the given statement index
+    private static void bindLong(SQLiteStatement statement, int index, Long value) {
+        if(value == null){
+            statement.bindNull(index);
+        } else {
+            statement.bindLong(index, value);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+
+import static com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * This class checks the data of a pet before it is written to the database. It has no UI and
+ * no state, so the PetProvider can run it on any thread and for every row of a batch. The
+ * result is a set of error flags which the callers turn into messages for the user.
+ */
+public final class PetValidator {
+
+    // The data is valid
+    public static final int VALID = 0;
+    // The name is missing or empty
+    public static final int ERROR_NAME = 1;
+    // The breed is missing or empty
+    public static final int ERROR_BREED = 1 << 1;
+    // The gender is missing or is not GENDER_UNKNOWN, GENDER_MALE or GENDER_FEMALE
+    public static final int ERROR_GENDER = 1 << 2;
+    // The weight is missing, is not a whole number or is out of the MIN_WEIGHT..MAX_WEIGHT range
+    public static final int ERROR_WEIGHT = 1 << 3;
+    // There is a column which is not a pet column of the contract, e.g. an internal column of
+    // the pets table like the deleted flag
+    public static final int ERROR_UNKNOWN_COLUMN = 1 << 4;
+
+    // The columns which the clients may write
+    private static final String[] WRITABLE_COLUMNS = {
+            PetEntry.COLUMN_NAME,
+            PetEntry.COLUMN_BREED,
+            PetEntry.COLUMN_GENDER,
+            PetEntry.COLUMN_WEIGHT
+    };
+
+    // The range of valid weights in kilograms
+    public static final int MIN_WEIGHT = 0;
+    public static final int MAX_WEIGHT = 1000;
+
+    // Private constructor so there cannot be any instance from this class
+    private PetValidator(){
+
+    }
+
+    /**
+     * This method checks the data of a pet
+     * @param contentValues is the data of the pet
+     * @param requireAll is true if all the columns must be present (for an insert), or false
+     *                   if only the present columns are checked (for an update)
+     * @return VALID or the ERROR_* flags of all the invalid columns
+     */
+    public static int validate(ContentValues contentValues, boolean requireAll) {
+
+        int errors = VALID;
+
+        if(contentValues.containsKey(PetEntry.COLUMN_NAME)){
+            if(isEmpty(contentValues.get(PetEntry.COLUMN_NAME))){
+                errors |= ERROR_NAME;
+            }
+        } else if(requireAll){
+            errors |= ERROR_NAME;
+        }
+
+        if(contentValues.containsKey(PetEntry.COLUMN_BREED)){
+            if(isEmpty(contentValues.get(PetEntry.COLUMN_BREED))){
+                errors |= ERROR_BREED;
+            }
+        } else if(requireAll){
+            errors |= ERROR_BREED;
+        }
+
+        if(contentValues.containsKey(PetEntry.COLUMN_GENDER)){
+            if(!isValidGender(contentValues.get(PetEntry.COLUMN_GENDER))){
+                errors |= ERROR_GENDER;
+            }
+        } else if(requireAll){
+            errors |= ERROR_GENDER;
+        }
+
+        if(contentValues.containsKey(PetEntry.COLUMN_WEIGHT)){
+            if(!isValidWeight(contentValues.get(PetEntry.COLUMN_WEIGHT))){
+                errors |= ERROR_WEIGHT;
+            }
+        } else if(requireAll){
+            errors |= ERROR_WEIGHT;
+        }
+
+        for(String column : contentValues.keySet()){
+            if(!isWritableColumn(column)){
+                errors |= ERROR_UNKNOWN_COLUMN;
+                break;
+            }
+        }
+
+        return errors;
+    }
+
+    /**
+     * This method checks the data of a whole batch of pets
+     * @param values is the data of the pets
+     * @param requireAll is true if all the columns must be present, see validate()
+     * @param errors receives the result of validate() for every pet, it must be at least as
+     *               long as values
+     * @return the number of invalid pets
+     */
+    public static int validateBatch(ContentValues[] values, boolean requireAll, int[] errors) {
+
+        int invalidRows = 0;
+        for(int i = 0; i < values.length; i++){
+            errors[i] = validate(values[i], requireAll);
+            if(errors[i] != VALID){
+                invalidRows++;
+            }
+        }
+        return invalidRows;
+    }
+
+    // Returns true if the column is one of the WRITABLE_COLUMNS
+    private static boolean isWritableColumn(String column) {
+        for(String writableColumn : WRITABLE_COLUMNS){
+            if(writableColumn.equals(column)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Returns true if the value is null or an empty String
+    private static boolean isEmpty(Object value) {
+        return value == null || value.toString().length() == 0;
+    }
+
+    // Returns true if the value is one of the gender constants
+    private static boolean isValidGender(Object value) {
+
+        if(!isWholeNumber(value)){
+            return false;
+        }
+        long gender = toLong(value);
+        return gender == PetEntry.GENDER_UNKNOWN
+                || gender == PetEntry.GENDER_MALE
+                || gender == PetEntry.GENDER_FEMALE;
+    }
+
+    // Returns true if the value is a whole number in the range of valid weights
+    private static boolean isValidWeight(Object value) {
+
+        if(!isWholeNumber(value)){
+            return false;
+        }
+        long weight = toLong(value);
+        return weight >= MIN_WEIGHT && weight <= MAX_WEIGHT;
+    }
+
+    // Returns true if the value is an integral Number or a String of decimal digits
+    private static boolean isWholeNumber(Object value) {
+
+        if(value instanceof Long || value instanceof Integer
+                || value instanceof Short || value instanceof Byte){
+            return true;
+        }
+        if(!(value instanceof String)){
+            return false;
+        }
+
+        String string = (String) value;
+        int length = string.length();
+        int start = length > 0 && string.charAt(0) == '-' ? 1 : 0;
+        if(length == start || length - start > 18){
+            return false;
+        }
+        for(int i = start; i < length; i++){
+            char c = string.charAt(i);
+            if(c < '0' || c > '9'){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Converts a value which passed isWholeNumber() to a long
+    private static long toLong(Object value) {
+        if(value instanceof Number){
+            return ((Number) value).longValue();
+        }
+        return Long.parseLong((String) value);
+    }
+}
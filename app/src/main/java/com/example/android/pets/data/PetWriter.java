@@ -0,0 +1,265 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class funnels the writes to the pets table into a single background thread. The writes
+ * which arrive within GROUP_COMMIT_WINDOW_MS of each other, up to MAX_GROUP_SIZE of them, are
+ * applied as one PetProvider batch, i.e. one transaction and one commit for the whole group.
+ * Every caller gets a Future, and optionally a callback, which completes when its group has
+ * been committed.
+ *
+ * The writes of a group are independent of each other, so an operation must not use back
+ * references or allow yields. If a group fails, its writes are applied again one by one, so a
+ * single invalid write only fails its own caller.
+ */
+public class PetWriter {
+
+    /**
+     * Callback which is called on the writer thread when a write has been committed or failed
+     */
+    public interface Callback {
+        void onWriteComplete(ContentProviderResult result, Exception error);
+    }
+
+    // Log tag
+    private static final String LOG_TAG = PetWriter.class.getSimpleName();
+
+    // How long the writer waits for more writes after the first one of a group
+    private static final long GROUP_COMMIT_WINDOW_MS = 10;
+
+    // Maximum number of writes in a group. The PetProvider batch never yields below this size,
+    // so a group is always committed or rolled back as a whole
+    private static final int MAX_GROUP_SIZE = 100;
+
+    // The writer of this process
+    private static PetWriter sInstance;
+
+    // Content resolver which applies the groups to the PetProvider
+    private final ContentResolver mContentResolver;
+
+    // The writes which wait for the writer thread
+    private final BlockingQueue<PendingWrite> mQueue = new LinkedBlockingQueue<>();
+
+    // The writer thread
+    private final Thread mThread;
+
+    /**
+     * This method returns the writer of this process, and starts it the first time
+     * @param context is any context of the app
+     * @return the writer
+     */
+    public static synchronized PetWriter getInstance(Context context) {
+        if(sInstance == null){
+            sInstance = new PetWriter(context.getApplicationContext().getContentResolver());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Public constructor which starts a writer with its own thread. The app uses the writer of
+     * getInstance(), this is meant for the code which writes to a provider of its own, like the
+     * benchmarks
+     * @param contentResolver is the content resolver which applies the groups
+     */
+    public PetWriter(ContentResolver contentResolver) {
+
+        mContentResolver = contentResolver;
+
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "PetWriter");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * This method stops the writer thread after its current group. The writes which are still
+     * queued are never completed, so it must only be called when no caller waits anymore
+     */
+    public void shutdown() {
+        mThread.interrupt();
+    }
+
+    /**
+     * This method queues a write
+     * @param operation is the insert, update or delete on the pets URIs
+     * @return a future which completes with the result of the write once its group is committed
+     */
+    public Future<ContentProviderResult> submit(ContentProviderOperation operation) {
+        return submit(operation, null);
+    }
+
+    /**
+     * This method queues a write
+     * @param operation is the insert, update or delete on the pets URIs
+     * @param callback is called on the writer thread once the group is committed, or null
+     * @return a future which completes with the result of the write once its group is committed
+     */
+    public Future<ContentProviderResult> submit(ContentProviderOperation operation,
+                                                Callback callback) {
+
+        // A yield would commit a part of the group, which could not be retried safely
+        if(operation.isYieldAllowed()){
+            throw new IllegalArgumentException("Grouped writes cannot allow yields");
+        }
+
+        PendingWrite write = new PendingWrite(operation, callback);
+        mQueue.add(write);
+        return write;
+    }
+
+    // The loop of the writer thread, which collects and commits the groups
+    private void writeLoop() {
+
+        ArrayList<PendingWrite> group = new ArrayList<>(MAX_GROUP_SIZE);
+        while(true){
+            try {
+                // Wait for the first write of the group, then for more writes until the window
+                // is over or the group is full
+                group.add(mQueue.take());
+                long deadline = SystemClock.uptimeMillis() + GROUP_COMMIT_WINDOW_MS;
+                while(group.size() < MAX_GROUP_SIZE){
+                    long remaining = deadline - SystemClock.uptimeMillis();
+                    PendingWrite write = remaining > 0
+                            ? mQueue.poll(remaining, TimeUnit.MILLISECONDS)
+                            : mQueue.poll();
+                    if(write == null){
+                        break;
+                    }
+                    group.add(write);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            commit(group);
+            group.clear();
+        }
+    }
+
+    /**
+     * This method applies a group of writes as one batch. If the batch fails, the writes are
+     * applied one by one
+     * @param group is the writes of the group
+     */
+    private void commit(ArrayList<PendingWrite> group) {
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(group.size());
+        for(PendingWrite write : group){
+            operations.add(write.mOperation);
+        }
+
+        ContentProviderResult[] results;
+        try {
+            results = mContentResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException | RuntimeException e) {
+
+            // A single write failed, so it gets the error
+            if(group.size() == 1){
+                group.get(0).complete(null, e);
+                return;
+            }
+
+            // The whole group was rolled back, so every write is applied again on its own
+            Log.w(LOG_TAG, "Group of " + group.size() + " writes failed, retrying one by one", e);
+            for(PendingWrite write : group){
+                ArrayList<PendingWrite> single = new ArrayList<>(1);
+                single.add(write);
+                commit(single);
+            }
+            return;
+        }
+
+        for(int i = 0; i < group.size(); i++){
+            group.get(i).complete(results[i], null);
+        }
+    }
+
+    /**
+     * A queued write, which is also the Future of its caller
+     */
+    private static class PendingWrite implements Future<ContentProviderResult> {
+
+        final ContentProviderOperation mOperation;
+        private final Callback mCallback;
+
+        // Counted down once the write is committed or failed
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private ContentProviderResult mResult;
+        private Exception mError;
+
+        PendingWrite(ContentProviderOperation operation, Callback callback) {
+            mOperation = operation;
+            mCallback = callback;
+        }
+
+        // Completes the future and calls the callback
+        void complete(ContentProviderResult result, Exception error) {
+            mResult = result;
+            mError = error;
+            mDone.countDown();
+            if(mCallback != null){
+                mCallback.onWriteComplete(result, error);
+            }
+        }
+
+        // A queued write cannot be cancelled
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return mDone.getCount() == 0;
+        }
+
+        @Override
+        public ContentProviderResult get() throws InterruptedException, ExecutionException {
+            mDone.await();
+            return getResult();
+        }
+
+        @Override
+        public ContentProviderResult get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            if(!mDone.await(timeout, unit)){
+                throw new TimeoutException();
+            }
+            return getResult();
+        }
+
+        // Returns the result, or throws the error of the write
+        private ContentProviderResult getResult() throws ExecutionException {
+            if(mError != null){
+                throw new ExecutionException(mError);
+            }
+            return mResult;
+        }
+    }
+}